@@ -431,35 +431,39 @@ public class BlockIndexer{
         return null;
     }
 
-//    /** Find the closest ore block relative to a position. */ FINISHME: Implement
-//    public Tile findClosestOreButWithoutTurrets(float xp, float yp, Item item){
-//        if(ores[item.id] != null){
-//            float minDst = 0f;
-//            Tile closest = null;
-//            for(int qx = 0; qx < quadWidth; qx++){
-//                for(int qy = 0; qy < quadHeight; qy++){
-//                    var arr = ores[item.id][qx][qy];
-//                    if(arr != null && arr.size > 0){
-//                        Tile tile = world.tile(arr.first());
-//                        float dst = Mathf.dst2(xp, yp, tile.worldx(), tile.worldy());
-//                        if(closest == null || dst < minDst){
-//                            for(int i : arr.items){
-//                                tile = world.tile(i);
-//                                dst = Mathf.dst2(xp, yp, tile.worldx(), tile.worldy());
-//                                if((closest == null || dst < minDst) && !Navigation.obstacles.){
-//                                    closest = tile;
-//                                    minDst = dst;
-//                                }
-//                            }
-//                        }
-//                    }
-//                }
-//            }
-//            return closest;
-//        }
-//
-//        return null;
-//    }
+    /**
+     * Find the closest ore block relative to a position that satisfies a predicate, unlike {@link #findClosestOre(float, float, Item)} every ore tile
+     * is considered. Quadrants are visited in rings around the position and the search stops once a ring can't contain anything closer.
+     */
+    public Tile findClosestOre(float xp, float yp, Item item, Boolf<Tile> pred){
+        if(ores == null || ores[item.id] == null) return null;
+        var quads = ores[item.id];
+        int cx = Mathf.clamp((int)(xp / tilesize) / quadrantSize, 0, quadWidth - 1), cy = Mathf.clamp((int)(yp / tilesize) / quadrantSize, 0, quadHeight - 1);
+        float minDst = Float.MAX_VALUE;
+        Tile closest = null;
+        for(int r = 0, rings = Math.max(quadWidth, quadHeight); r < rings; r++){
+            float bound = Math.max((r - 1) * quadrantSize - 1, 0) * tilesize; //nothing in this ring is closer than this
+            if(bound * bound > minDst) break;
+
+            for(int qx = cx - r; qx <= cx + r; qx++){
+                for(int qy = cy - r; qy <= cy + r; qy++){
+                    if(Math.max(Math.abs(qx - cx), Math.abs(qy - cy)) != r || qx < 0 || qy < 0 || qx >= quadWidth || qy >= quadHeight) continue;
+                    var arr = quads[qx][qy];
+                    if(arr == null) continue;
+
+                    for(int i = 0; i < arr.size; i++){
+                        Tile tile = world.tile(arr.items[i]);
+                        float dst = Mathf.dst2(xp, yp, tile.worldx(), tile.worldy());
+                        if(dst < minDst && pred.get(tile)){
+                            closest = tile;
+                            minDst = dst;
+                        }
+                    }
+                }
+            }
+        }
+        return closest;
+    }
 
     /** Find the closest ore block relative to a position. */
     public Tile findClosestOre(Unit unit, Item item){
@@ -46,6 +46,8 @@ object Client {
         autoTransfer.update()
         Navigation.update()
         PowerInfo.update()
+        TileRecords.update()
+        TileRecords.stepRollback()
         Spectate.update() // FINISHME: Why is spectate its own class? Move it here, no method is needed just add an `if` like below
 
         // Ratelimit reset handling
@@ -345,6 +345,16 @@ fun setup() {
         Main.send(ClientMessageTransmission(args[0]).apply { addToChatfrag() })
     }
 
+    register("navstats [reset]", "Shows how long path requests wait for and take to compute") { args, player -> // FINISHME: Bundle
+        player.sendMessage(NavigationScheduler.summary())
+        if (args.any() && args[0] == "reset") NavigationScheduler.stats.reset()
+    }
+
+    register("commsstats [reset]", "Shows how much client communication is queued and how long it takes to send") { args, player -> // FINISHME: Bundle
+        player.sendMessage(Main.communicationClient.summary())
+        if (args.any() && args[0] == "reset") Main.communicationClient.stats.reset()
+    }
+
     register("mapinfo [team]", "Lists various useful map info.") { args, player -> // FINISHME: Bundle
         val team = if (args.isEmpty()) player.team() else findTeam(args[0])
         player.sendMessage(with(Vars.state) {
@@ -363,6 +373,47 @@ fun setup() {
         })
     }
 
+    register("logs <x> <y> <radius> [minutes] [player...]", "Lists the tile logs around a position, optionally only from the last few minutes and by a player") { args, player -> // FINISHME: Bundle
+        val x = Strings.parseInt(args[0], Int.MIN_VALUE)
+        val y = Strings.parseInt(args[1], Int.MIN_VALUE)
+        val radius = Strings.parseInt(args[2], -1)
+        val minutes = if (args.size > 3) Strings.parseInt(args[3], -1) else 0
+        if (x < 0 || y < 0 || radius < 0 || minutes < 0) {
+            player.sendMessage("[scarlet]x, y, radius and minutes must be numbers that aren't negative")
+            return@register
+        }
+        val since = if (minutes == 0) 0L else System.currentTimeMillis() - minutes * 60_000L
+        val name = if (args.size > 4) args[4].stripColors() else null
+        val cause = if (name == null) null else { interactor: Interactor -> interactor.shortName.stripColors().contains(name, true) }
+
+        var count = 0
+        val seen = HashSet<Triple<Int, Byte, Long>>() // Multiblocks log every tile they cover, they are only shown once
+        for (row in TileRecords.query(x - radius, y - radius, radius * 2 + 1, radius * 2 + 1, since, cause)) {
+            if (!seen.add(TileRecords.event(row))) continue
+            if (count++ >= 30) continue // Keep counting to report the total, without building the logs that aren't shown
+            val log = TileRecords.log(row)
+            Vars.ui.chatfrag.addMsg("[accent](${log.position.x}, ${log.position.y})[] ${log.toShortString()} (${UI.formatMinutesFromMillis(Time.timeSinceMillis(log.time.toEpochMilli()))})").findCoords()
+        }
+        player.sendMessage(if (count > 30) "[accent]Showing 30 of $count logs" else "[accent]Found $count logs")
+    }
+
+    register("rollback <x> <y> <radius> <minutes> [c]", "Reverts the blocks and configs around a position to how they were a number of minutes ago") { args, player -> // FINISHME: Bundle
+        val x = Strings.parseInt(args[0], Int.MIN_VALUE)
+        val y = Strings.parseInt(args[1], Int.MIN_VALUE)
+        val radius = Strings.parseInt(args[2], -1)
+        val minutes = Strings.parseInt(args[3], -1)
+        if (x < 0 || y < 0 || radius < 0 || minutes < 0) {
+            player.sendMessage("[scarlet]x, y, radius and minutes must be numbers that aren't negative")
+            return@register
+        }
+        val confirmed = args.size > 4 && args[4].startsWith("c") // Only preview by default
+
+        TileRecords.rollback(x - radius, y - radius, radius * 2 + 1, radius * 2 + 1, System.currentTimeMillis() - minutes * 60_000L, confirmed) {
+            val summary = "${it.removals.size} removals, ${it.placements.size} placements and ${it.configs.size} configs" + if (it.unresolved > 0) " (${it.unresolved} tiles couldn't be resolved)" else ""
+            player.sendMessage(if (confirmed) "[accent]Rolling back: $summary" else "[accent]Rolling back would take $summary, run [coral]!rollback ${args.take(4).joinToString(" ")} c[] to apply")
+        }
+    }
+
     register("binds <type>", "Shows the positions of all blocks binding a type of unit") { args, player -> // FINISHME: Bundle
         val type = findUnit(args[0])
 
@@ -30,7 +30,8 @@ import kotlin.random.Random
 
 object Main : ApplicationListener {
     private lateinit var communicationSystem: SwitchableCommunicationSystem
-    private lateinit var communicationClient: Packets.CommunicationClient
+    lateinit var communicationClient: Packets.CommunicationClient
+        private set
     private var dispatchedBuildPlans = mutableListOf<BuildPlan>()
     private val buildPlanInterval = Interval()
     val tlsPeers = CopyOnWriteArrayList<Pair<Packets.CommunicationClient, TlsCommunicationSystem>>()
@@ -63,7 +64,7 @@ object Main : ApplicationListener {
 
         communicationClient = Packets.CommunicationClient(communicationSystem)
 
-        Navigation.navigator = AStarNavigator
+        Navigation.selectNavigator()
 
         Events.on(EventType.WorldLoadEvent::class.java) {
             if (!Vars.net.client()) { // This is so scuffed but shh
@@ -293,7 +294,7 @@ object Main : ApplicationListener {
         if (toSend.isEmpty()) return
         isSendingPlans = true
         val start = Time.millis()
-        communicationClient.send(BuildQueueTransmission(toSend), { isSendingPlans = false; planSendTime = Time.timeSinceMillis(start); Toast(3f).add(Core.bundle.format("client.sentplans", toSend.size)) }, { Toast(3f).add("@client.nomessageblock")})
+        communicationClient.send(CompactBuildQueueTransmission(toSend), { isSendingPlans = false; planSendTime = Time.timeSinceMillis(start); Toast(3f).add(Core.bundle.format("client.sentplans", toSend.size)) }, { Toast(3f).add("@client.nomessageblock")})
         dispatchedBuildPlans.addAll(toSend)
     }
 
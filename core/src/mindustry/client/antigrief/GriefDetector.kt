@@ -0,0 +1,111 @@
+package mindustry.client.antigrief
+
+/**
+ * Streaming detector for bursts of suspicious actions by a single interactor. Every pattern keeps a count-min sketch
+ * of events per [Interactors] id split into [BUCKETS] time buckets (so counts slide over a [WINDOW] without storing
+ * events) along with a small table of the heaviest hitters, which is where warnings are raised from. Memory is fixed
+ * no matter how many players come and go and each event costs a constant amount of work.
+ */
+class GriefDetector(private val warn: (cause: Int, pattern: Int, count: Int, x: Int, y: Int) -> Unit) {
+    companion object {
+        const val DECONSTRUCT = 0
+        const val REACTOR = 1
+        const val UNLINK = 2
+        const val PATTERNS = 3
+
+        /** Events by one interactor within the window that raise a warning, indexed by pattern. */
+        @JvmField val thresholds = intArrayOf(40, 3, 12)
+
+        const val WINDOW = 10_000L // Millis
+        const val BUCKETS = 10
+        private const val BUCKET = WINDOW / BUCKETS
+        private const val COOLDOWN = 15_000L // Millis between warnings for the same interactor and pattern
+        private const val DEPTH = 4
+        private const val WIDTH = 1024 // Power of two
+        private const val HITTERS = 8
+        private val seeds = intArrayOf(-0x61c88647, -0x3361d2af, 0x27d4eb2f, 0x165667b1)
+    }
+
+    private val sketch = IntArray(PATTERNS * BUCKETS * DEPTH * WIDTH)
+    private val totals = IntArray(PATTERNS * DEPTH * WIDTH) // Sum of the sketch over all the buckets in the window
+    private var bucket = Long.MIN_VALUE // Absolute index of the newest bucket
+
+    private val hitters = IntArray(PATTERNS * HITTERS) { -1 }
+    private val counts = IntArray(PATTERNS * HITTERS)
+    private val seen = LongArray(PATTERNS * HITTERS) // When the count of the hitter was last updated
+    private val warned = LongArray(PATTERNS * HITTERS) { -COOLDOWN }
+
+    /** Counts an event of [pattern] by [cause] at ([x], [y]) happening at [time] epoch millis, times should not go backwards by more than a bucket. */
+    fun event(cause: Int, pattern: Int, x: Int, y: Int, time: Long) {
+        if (cause == Interactors.NONE) return
+        advance(time / BUCKET)
+
+        val offset = (pattern * BUCKETS + (bucket % BUCKETS).toInt()) * DEPTH * WIDTH
+        var count = Int.MAX_VALUE
+        for (d in 0 until DEPTH) {
+            val cell = d * WIDTH + (((cause * seeds[d]) ushr 16) and (WIDTH - 1))
+            sketch[offset + cell]++
+            count = minOf(count, ++totals[pattern * DEPTH * WIDTH + cell])
+        }
+
+        // Space saving style table, the hitter with the smallest (or an expired) count is replaced
+        val base = pattern * HITTERS
+        var slot = -1
+        var smallest = -1
+        for (i in base until base + HITTERS) {
+            if (hitters[i] == cause) {
+                slot = i
+                break
+            }
+            if (smallest == -1 || current(i, time) < current(smallest, time)) smallest = i
+        }
+        if (slot == -1) {
+            if (current(smallest, time) > count) return
+            slot = smallest
+            hitters[slot] = cause
+            warned[slot] = -COOLDOWN
+        }
+        counts[slot] = count
+        seen[slot] = time
+
+        if (count >= thresholds[pattern] && time - warned[slot] >= COOLDOWN) {
+            warned[slot] = time
+            warn(cause, pattern, count, x, y)
+        }
+    }
+
+    /** Interactors ids of the heaviest hitters of [pattern] within the window ending at [time], heaviest first. */
+    fun hitters(pattern: Int, time: Long): List<Int> {
+        val base = pattern * HITTERS
+        return (base until base + HITTERS).filter { hitters[it] != -1 && current(it, time) > 0 }.sortedByDescending { counts[it] }.map { hitters[it] }
+    }
+
+    fun clear() {
+        sketch.fill(0)
+        totals.fill(0)
+        bucket = Long.MIN_VALUE
+        hitters.fill(-1)
+        counts.fill(0)
+        warned.fill(-COOLDOWN)
+    }
+
+    private fun current(slot: Int, time: Long) = if (hitters[slot] == -1 || time - seen[slot] >= WINDOW) 0 else counts[slot]
+
+    /** Moves the window forward to [target], subtracting the buckets that fall out of it from the totals. */
+    private fun advance(target: Long) {
+        if (target <= bucket) return
+        val expired = if (bucket == Long.MIN_VALUE) BUCKETS.toLong() else minOf(target - bucket, BUCKETS.toLong())
+        for (step in 1..expired) {
+            val index = ((target - expired + step) % BUCKETS).toInt()
+            for (pattern in 0 until PATTERNS) {
+                val offset = (pattern * BUCKETS + index) * DEPTH * WIDTH
+                val total = pattern * DEPTH * WIDTH
+                for (cell in 0 until DEPTH * WIDTH) {
+                    totals[total + cell] -= sketch[offset + cell]
+                    sketch[offset + cell] = 0
+                }
+            }
+        }
+        bucket = target
+    }
+}
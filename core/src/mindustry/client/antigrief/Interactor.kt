@@ -1,8 +1,11 @@
 package mindustry.client.antigrief
 
+import arc.struct.*
 import mindustry.ai.types.*
 import mindustry.gen.*
 import mindustry.gen.Unit
+import mindustry.type.*
+import java.util.*
 
 interface Interactor {
     val name: String
@@ -37,6 +40,9 @@ class NoInteractor : Interactor {
     override val shortName = ""
 }
 
+/** An interactor read back from a [TileLogFile], only the names survive. */
+class SavedInteractor(override val name: String, override val shortName: String) : Interactor
+
 fun Player?.toInteractor(): Interactor {
     this ?: return NullUnitInteractor()
     return UnitInteractor(unit())
@@ -46,3 +52,60 @@ fun Unit?.toInteractor(): Interactor {
     this ?: return NullUnitInteractor()
     return UnitInteractor(this)
 }
+
+/**
+ * Interns [Interactor]s into small int ids so that logs and traces store an int instead of an object per event.
+ * Interactors are deduplicated by name. Lookups for players and logic controlled units are cached on the player or
+ * processor and checked against the unit type and name, so the common case doesn't format any strings. The cache
+ * holds its keys weakly so players that left and removed processors can be collected. The interned interactors
+ * themselves are kept for the whole session as logs, traces and log files refer to them by id, that is one entry per
+ * distinct name.
+ */
+object Interactors {
+    const val NONE = 0
+    const val NULL_UNIT = 1
+
+    private val interactors = Seq<Interactor>()
+    private val ids = ObjectIntMap<String>()
+    private val cache = WeakHashMap<Any, Cached>()
+    private val types = IntIntMap() // Unit type id -> interactor of units that nobody controls
+
+    init {
+        intern(NoInteractor())
+        intern(NullUnitInteractor())
+    }
+
+    val size get() = interactors.size
+
+    operator fun get(id: Int): Interactor = interactors[id]
+
+    fun id(player: Player?): Int = if (player == null) NULL_UNIT else id(player.unit())
+
+    fun id(unit: Unit?): Int {
+        unit ?: return NULL_UNIT
+        val logic = unit.controller() as? LogicAI
+        val processor = logic?.controller
+        if (!unit.isPlayer && logic == null) {
+            val existing = types.get(unit.type.id.toInt(), -1)
+            if (existing != -1) return existing
+            return intern(UnitInteractor(unit)).also { types.put(unit.type.id.toInt(), it) }
+        }
+        if (!unit.isPlayer && processor == null) return intern(UnitInteractor(unit)) // Logic controlled without a processor, rare enough not to cache
+        val key: Any = if (unit.isPlayer) unit.player else processor!!
+        val name = if (unit.isPlayer) unit.player.name else processor!!.lastAccessed
+
+        val cached = cache[key]
+        if (cached != null && cached.type === unit.type && cached.name === name) return cached.id
+        return intern(UnitInteractor(unit)).also { cache[key] = Cached(unit.type, name, it) }
+    }
+
+    fun intern(interactor: Interactor): Int {
+        val existing = ids.get(interactor.name, -1)
+        if (existing != -1) return existing
+        interactors.add(interactor)
+        ids.put(interactor.name, interactors.size - 1)
+        return interactors.size - 1
+    }
+
+    private class Cached(val type: UnitType, val name: String?, val id: Int)
+}
@@ -1,20 +1,22 @@
 package mindustry.client.antigrief
 
 import arc.*
+import arc.files.*
 import arc.util.*
 import arc.util.serialization.*
 import mindustry.*
 import mindustry.client.*
 import mindustry.client.ClientVars.*
 import mindustry.client.utils.*
+import mindustry.core.*
 import mindustry.game.*
 import mindustry.gen.*
 import mindustry.net.*
 import mindustry.ui.*
-import java.util.concurrent.*
 
 class Moderation {
-    private val traces = CopyOnWriteArrayList<Player>() // last people to leave
+    private val traces = TraceStore(Core.settings.getInt("leavecount")) // last people to leave
+    private var tracesFile: Fi? = null
 
     companion object {
         init {
@@ -66,11 +68,21 @@ class Moderation {
             e.player ?: return@on
             e.player.trace ?: return@on
 
-//            traces.forEach { p -> if (p.trace.uuid == e.player.trace.uuid || p.trace.ip == e.player.trace.ip) traces.remove(p) } FINISHME: Remove dupe traces and add the relevant info to the new trace
-            while (traces.size >= Core.settings.getInt("leavecount")) traces.removeFirst() // Keep 100 latest leaves
-            traces.add(e.player)
+            traces.capacity = Core.settings.getInt("leavecount") // Keep 100 latest leaves
+            traces.add(Interactors.intern(SavedInteractor(e.player.name, e.player.name)), e.player.trace) // Replaces the older trace with the same uuid or ip
         }
 
+        Events.on(EventType.ServerJoinEvent::class.java) { // Traces are kept per server
+            save()
+            val host = Vars.ui.join.lastHost
+            tracesFile = if (host == null) null else Core.settings.dataDirectory.child("traces").child(String.format("%08x.bin", "${host.address}:${host.port}".hashCode()))
+            if (tracesFile == null) traces.clear() else traces.read(tracesFile!!)
+        }
+
+        Events.on(EventType.StateChangeEvent::class.java) { if (it.to == GameState.State.menu) save() }
+
+        Events.on(EventType.DisposeEvent::class.java) { save() }
+
         Events.on(EventType.PlayerJoin::class.java) { e -> // Trace players when they join, also traces all players on join
             if (!Vars.player.admin || e.player == null || e.player == Vars.player || e.player.admin || !Core.settings.getBool("modenabled")) return@on
 
@@ -86,23 +98,29 @@ class Moderation {
             else sendMessage("/a [scarlet]${player.name}[scarlet] has joined ${info.timesJoined-1} times before, they have been kicked ${info.timesKicked} times")
         }
 
-        for (n in traces.size - 1 downTo 0) {
-            val i = traces[n]
-            if (i.trace.ip == info.uuid || i.trace.ip == info.ip) { // Update info
-                if (i.trace.uuid != info.uuid) Vars.player.sendMessage("[scarlet]${player.name}[scarlet] has changed UUID: ${i.trace.uuid} -> ${info.uuid}")
-                if (i.trace.ip != info.ip) Vars.player.sendMessage("[scarlet]${player.name}[scarlet] has changed IP: ${i.trace.ip} -> ${info.ip}")
-                if (i.name != player.name) Vars.player.sendMessage("[scarlet]${player.name}[scarlet] has changed name, was previously: ${i.name}")
-            }
+        for (i in setOfNotNull(traces.byUuid(info.uuid), traces.byIp(info.ip))) { // Update info
+            val name = Interactors[i.name].name
+            if (i.info.uuid != info.uuid) Vars.player.sendMessage("[scarlet]${player.name}[scarlet] has changed UUID: ${i.info.uuid} -> ${info.uuid}")
+            if (i.info.ip != info.ip) Vars.player.sendMessage("[scarlet]${player.name}[scarlet] has changed IP: ${i.info.ip} -> ${info.ip}")
+            if (name != player.name) Vars.player.sendMessage("[scarlet]${player.name}[scarlet] has changed name, was previously: $name")
         }
 
         player.trace = info
     }
 
+    private fun save() {
+        val file = tracesFile ?: return
+        if (!traces.dirty) return
+        file.parent().mkdirs()
+        traces.write(file)
+    }
+
     fun leftList() {
         dialog("Leaves, newest first") {
             cont.pane {
-                for (player in traces.asReversed()) {
-                    it.button(player.name, Styles.nonet) { Vars.ui.traces.show(player, player.trace, true) }.wrapLabel(false).minWidth(100f)
+                for (trace in traces) {
+                    val name = Interactors[trace.name].name
+                    it.button(name, Styles.nonet) { Vars.ui.traces.show(name, trace.info, null) }.wrapLabel(false).minWidth(100f)
                     it.row()
                 }
             }.growY()
@@ -5,9 +5,11 @@ import arc.math.*;
 import arc.scene.*;
 import arc.scene.ui.layout.*;
 import arc.struct.*;
+import arc.util.*;
 import mindustry.*;
 import mindustry.client.ui.*;
 import mindustry.core.*;
+import mindustry.game.*;
 import mindustry.graphics.*;
 import mindustry.ui.*;
 import mindustry.world.blocks.power.*;
@@ -16,9 +18,58 @@ public class PowerInfo {
     private static PowerGraph found;
     public static PowerGraph hovered;
     public static final Seq<PowerGraph> graphs = new Seq<>();
+    /** The biggest active graph of each team, only searched for again after it stops being active. */
+    private static final PowerGraph[] largest = new PowerGraph[Team.all.length];
+    private static final boolean[] stale = new boolean[Team.all.length];
+    /** Power balance (per second) and stored power of the player's biggest graph, one sample per second. */
+    public static final PowerHistory history = new PowerHistory(120);
+    private static long lastSample;
+
+    static {
+        Events.on(EventType.WorldLoadEvent.class, e -> history.clear()); // Samples from the last map have nothing to do with this one
+    }
+
+    /** Called when the updater of a graph is added. */
+    public static void added(PowerGraph graph) {
+        graphs.add(graph);
+        grown(graph);
+    }
+
+    /** Called when the updater of a graph is removed, which happens whenever it is merged, split or emptied. */
+    public static void removed(PowerGraph graph) {
+        graphs.remove(graph);
+        if (graph.team != null && largest[graph.team.id] == graph) {
+            largest[graph.team.id] = null;
+            stale[graph.team.id] = true;
+        }
+    }
+
+    /** Called when a building joins an active graph. */
+    public static void grown(PowerGraph graph) {
+        if (graph.team == null || stale[graph.team.id]) return;
+        var current = largest[graph.team.id];
+        if (current == null || graph.all.size > current.all.size) largest[graph.team.id] = graph;
+    }
+
+    /** The biggest active graph of the team, this is only a scan of {@link #graphs} right after the previous one went away. */
+    public static @Nullable PowerGraph largest(Team team) {
+        if (stale[team.id]) {
+            stale[team.id] = false;
+            largest[team.id] = graphs.max(g -> g.team == team, g -> g.all.size);
+        }
+        return largest[team.id];
+    }
 
     public static void update() {
-        found = graphs.max(g -> g.team == Vars.player.team(), g -> g.all.size);
+        found = largest(Vars.player.team());
+        if (found != null && found.team != Vars.player.team()) { // A building of another team joined it
+            stale[found.team.id] = stale[Vars.player.team().id] = true;
+            found = largest(Vars.player.team());
+        }
+        if (Time.timeSinceMillis(lastSample) >= 1000) {
+            lastSample = Time.millis();
+            history.add(found != null ? found.getPowerBalance() * 60 : 0, found != null ? found.getLastPowerStored() : 0);
+        }
         var tile = Vars.control.input.cursorTile();
         hovered = Core.settings.getBool("graphdisplay") && tile != null && tile.build instanceof PowerNode.PowerNodeBuild node ? node.power.graph : null;
     }
@@ -38,7 +89,41 @@ public class PowerInfo {
         power.add(powerBar).height(18).growX().padBottom(6);
         power.row();
         power.add(batteryBar).height(18).growX().padBottom(6);
+        power.row();
+        power.collapser(c -> c.add(new PowerHistoryChart(history)).height(40).growX().padBottom(6), () -> Core.settings.getBool("powerhistory")).growX();
 
         return power;
     }
+
+    /** Fixed size ring of power samples, adding one is O(1) no matter how big the graph is. */
+    public static class PowerHistory {
+        public final float[] balance, stored;
+        private int start, size;
+
+        public PowerHistory(int capacity) {
+            balance = new float[capacity];
+            stored = new float[capacity];
+        }
+
+        public void add(float balance, float stored) {
+            int i = (start + size) % this.balance.length;
+            if (size == this.balance.length) start = (start + 1) % this.balance.length;
+            else size++;
+            this.balance[i] = balance;
+            this.stored[i] = stored;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** Position of the sample that is {@code index} samples after the oldest one in the arrays. */
+        public int index(int index) {
+            return (start + index) % balance.length;
+        }
+
+        public void clear() {
+            start = size = 0;
+        }
+    }
 }
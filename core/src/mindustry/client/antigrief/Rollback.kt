@@ -0,0 +1,91 @@
+package mindustry.client.antigrief
+
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.*
+import mindustry.*
+import mindustry.client.*
+import mindustry.entities.units.*
+import java.util.*
+
+/**
+ * Reverts an area to how it was at [time] (epoch millis) by diffing the states reconstructed from the [store] against
+ * the world. The diff is computed a slice of tiles per frame and yields removals, then placements (which carry their
+ * configuration) and then configs for blocks that are still there, with one action per building. Once computed and if
+ * [apply] is set the plans are handed to the player's unit and the configs are fed into [ClientVars.configs] in
+ * batches that don't go past the ratelimit.
+ */
+class Rollback(private val store: TileLogStore, val x: Int, val y: Int, val width: Int, val height: Int, val time: Long, private val apply: Boolean, private val computed: (Rollback) -> Unit) {
+    companion object {
+        private const val BUDGET = 2_000_000L // Nanos of diffing per frame
+        private const val MAX_QUEUED_PLANS = 300
+    }
+
+    val removals = Seq<BuildPlan>()
+    val placements = Seq<BuildPlan>()
+    val configs = Seq<ConfigRequest>()
+    /** Tiles whose old building couldn't be located, these are skipped. */
+    var unresolved = 0
+        private set
+
+    private val removed = IntSet()
+    private val handled = IntSet()
+    private var cursor = 0
+    private var done = false
+    private var dispatched = 0
+    private var configured = 0
+
+    /** Advances the rollback, returns true once there is nothing left to do. */
+    fun update(): Boolean {
+        if (!done) {
+            val start = Time.nanos()
+            while (cursor < width * height) {
+                diff(x + cursor % width, y + cursor / width)
+                if (++cursor % 64 == 0 && Time.timeSinceNanos(start) > BUDGET) return false
+            }
+            done = true
+            computed(this)
+        }
+        if (!apply) return true
+
+        val unit = Vars.player.unit()
+        if (unit.canBuild()) {
+            while (dispatched < removals.size + placements.size && unit.plans.size < MAX_QUEUED_PLANS) {
+                unit.addBuild(if (dispatched < removals.size) removals[dispatched] else placements[dispatched - removals.size])
+                dispatched++
+            }
+        }
+        while (configured < configs.size && ClientVars.configs.size < ClientVars.ratelimitMax) ClientVars.configs.add(configs[configured++])
+
+        return dispatched == removals.size + placements.size && configured == configs.size
+    }
+
+    private fun diff(tx: Int, ty: Int) {
+        val tile = Vars.world.tile(tx, ty) ?: return
+        val count = store.count(tx, ty)
+        if (count == 0) return // Never touched
+        val ordinal = store.ordinalAt(tx, ty, time)
+        if (ordinal == count - 1) return // Nothing happened since
+        val target = (if (ordinal == -1) store.snapshot(tx, ty) else store.state(tx, ty, ordinal)) ?: return
+        val block = tile.block()
+        val build = tile.build
+
+        if (block == target.block) {
+            if (build == null || !target.block.configurable || Arrays.deepEquals(arrayOf(build.config()), arrayOf(target.configuration))) return
+            if (handled.add(build.pos())) configs.add(ConfigRequest(build.tileX(), build.tileY(), target.configuration))
+            return
+        }
+
+        if (build != null && build.team == Vars.player.team() && removed.add(build.pos())) removals.add(BuildPlan(build.tileX(), build.tileY()))
+        if (target.block.isAir || target.team != Vars.player.team()) return
+
+        // The logs record the building each tile belonged to, use that to find where the old block was centered
+        val row = store.row(tx, ty, ordinal.coerceAtLeast(0))
+        if (store.area(row) != target.block.size) {
+            unresolved++
+            return
+        }
+        val origin = store.origin(row)
+        if (handled.add(origin)) placements.add(BuildPlan(Point2.x(origin).toInt(), Point2.y(origin).toInt(), target.rotation, target.block, target.configuration))
+    }
+}
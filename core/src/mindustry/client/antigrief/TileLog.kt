@@ -2,13 +2,8 @@ package mindustry.client.antigrief
 
 import arc.*
 import arc.math.geom.*
-import arc.scene.*
-import arc.scene.ui.layout.*
-import arc.util.*
-import mindustry.*
 import mindustry.client.utils.*
 import mindustry.content.*
-import mindustry.core.*
 import mindustry.world.*
 import java.time.*
 import kotlin.math.*
@@ -30,11 +25,7 @@ data class IntRectangle(val x: Int, val y: Int, val width: Int, val height: Int)
 }
 
 private var lastID: Long = 0
-abstract class TileLog(val position: IntRectangle, override val cause: Interactor) : InteractionLog {
-    val id: Long = lastID++
-
-    override val time: Instant = Instant.now()
-
+abstract class TileLog(val position: IntRectangle, override val cause: Interactor, override val time: Instant, val id: Long = lastID++) : InteractionLog {
     companion object {
         fun Tile.linkedArea(): IntRectangle {
             return linkedArea(this, block()?.size ?: return IntRectangle(x.toInt(), y.toInt(), 1, 1))
@@ -53,122 +44,18 @@ abstract class TileLog(val position: IntRectangle, override val cause: Interacto
         }
     }
 
-    constructor(tile: Tile, cause: Interactor) : this(tile.linkedArea(), cause)
+    constructor(tile: Tile, cause: Interactor) : this(tile.linkedArea(), cause, Instant.now())
 
     abstract fun apply(previous: TileState)
 
     abstract override fun toString(): String
 
-    open fun add(sequence: TileLogSequence) {
-        sequence.logs.add(this)
-    }
-
     abstract fun toShortString(): String
 }
 
-class TileLogSequence(val snapshot: TileState, val startingIndex: Int) : Iterable<TileLog> {
-    val logs = mutableListOf<TileLog>()
-    val range get() = startingIndex..startingIndex + logs.size
-
-    override fun iterator(): Iterator<TileLog> {
-        return logs.iterator()
-    }
-
-    operator fun get(index: Int): TileState {
-        val cpy = snapshot.clone()
-        for (diff in logs.subList(0, (index + 1) - startingIndex)) {
-            diff.apply(cpy)
-        }
-
-        return cpy
-    }
-
-    fun after(index: Int): List<TileLog> {
-        return logs.slice((index - startingIndex).coerceIn(logs.indices.apply { if (isEmpty()) return emptyList() /*idk either*/ }) until logs.size)
-    }
-}
-
-class TileRecord(val x: Int, val y: Int) {
-    private var logs: MutableList<TileLogSequence>? = null
-    val size get() = logs?.lastOrNull()?.range?.last ?: 0
-    private val totalRange get() = 0..size
-
-    fun add(log: TileLog, tile: Tile) {
-        when {
-            logs == null -> {
-                logs = mutableListOf()
-                logs!!.add(TileLogSequence(TileState(tile), 0))
-            }
-
-            logs!!.last().logs.size > 100 -> {
-                logs!!.add(TileLogSequence(TileState(tile), logs!!.last().range.last))
-            }
-        }
-        log.add(logs!!.last())
-    }
-
-    operator fun get(index: Int): TileState? {
-        if (index !in totalRange) throw IndexOutOfBoundsException("Index $index is out of bounds! (size: $size)")
-        // Get the last sequence that encompases this index
-        val bestSequence = logs?.singleOrNull { index in it.range }
-        return bestSequence?.get(index)
-    }
-
-    // FINISHME: This breaks when there are over 100 logs on the tile.
-    fun lastLogs(count: Int): List<TileLog> {
-        val startingIndex = (size - count).coerceAtLeast(0)
-        val output = mutableListOf<TileLog>()
-        for (item in logs ?: return emptyList()) {
-            output.addAll(item.after(startingIndex))
-        }
-        return output
-    }
-
-    fun oldestLog(sequence: TileLogSequence): TileLog? {
-        return if (sequence.logs.isNotEmpty()) sequence.logs[0] else null
-    }
-
-    fun oldestSequence(): TileLogSequence? {
-        return logs?.getOrNull(0)  // should never be null but you never know
-    }
-
-    fun toElement(): Element {
-        val table = Table()
-        table.add(Core.bundle.format("client.logfor", x, y)).top()
-        table.row()
-
-        table.pane { t ->
-            if (logs == null) return@pane
-
-            if (logs?.any() == true) {
-                t.button("@client.initialstate") {
-                    dialog("@client.log") {
-                        cont.add(logs!![0].snapshot.toElement())
-                        addCloseButton()
-                    }.show()
-                }.wrap(false)
-                t.row()
-            }
-            for (sequence in logs!!) {
-                for ((index, log) in sequence.withIndex()) {
-                    t.add(log.toString() + " (" + UI.formatTime((Time.timeSinceMillis(log.time.toEpochMilli()) / 16.667).toFloat()) + ")").left()
-                    t.row()
-                    t.button("@client.state") {
-                        dialog("@client.log") {
-                            cont.add(get(index + sequence.startingIndex)?.toElement())
-                            addCloseButton()
-                        }.show()
-                    }.wrap(false)
-                    t.row()
-                }
-            }
-        }.grow()
-
-        return table
-    }
-}
+class ConfigureTileLog(position: IntRectangle, cause: Interactor, time: Instant, id: Long, val block: Block, var configuration: Any?) : TileLog(position, cause, time, id) {
+    constructor(tile: Tile, cause: Interactor, block: Block, configuration: Any?) : this(tile.linkedArea(), cause, Instant.now(), lastID++, block, configuration)
 
-class ConfigureTileLog(tile: Tile, cause: Interactor, val block: Block, var configuration: Any?) : TileLog(tile, cause) {
     override fun apply(previous: TileState) {
         previous.configuration = configuration
     }
@@ -177,17 +64,12 @@ class ConfigureTileLog(tile: Tile, cause: Interactor, val block: Block, var conf
         return "${cause.name.stripColors()} ${Core.bundle.get("client.configured")} ${block.localizedName}"
     }
 
-    override fun add(sequence: TileLogSequence) {
-        Core.app.post {
-            configuration = Vars.world.tile(position.x, position.y)?.build?.config()
-            super.add(sequence)
-        }
-    }
-
     override fun toShortString() = "${cause.shortName.stripColors().subSequence(0, min(16, cause.shortName.stripColors().length))}${if (cause.shortName.stripColors().length > 16) "..." else ""} ${Core.bundle.get("client.configured")}"
 }
 
-open class TilePlacedLog(tile: Tile, cause: Interactor, val block: Block, val configuration: Any?) : TileLog(tile, cause) {
+open class TilePlacedLog(position: IntRectangle, cause: Interactor, time: Instant, id: Long, val block: Block, val configuration: Any?) : TileLog(position, cause, time, id) {
+    constructor(tile: Tile, cause: Interactor, block: Block, configuration: Any?) : this(tile.linkedArea(), cause, Instant.now(), lastID++, block, configuration)
+
     override fun apply(previous: TileState) {
         previous.block = block
         previous.configuration = configuration
@@ -200,7 +82,9 @@ open class TilePlacedLog(tile: Tile, cause: Interactor, val block: Block, val co
     override fun toShortString() = "${cause.shortName.stripColors().subSequence(0, min(16, cause.shortName.stripColors().length))}${if (cause.shortName.stripColors().length > 16) "..." else ""} ${Core.bundle.get("client.built")} ${block.localizedName}"
 }
 
-class BlockPayloadDropLog(tile: Tile, cause: Interactor, block: Block, configuration: Any?) : TilePlacedLog(tile, cause, block, configuration) {
+class BlockPayloadDropLog(position: IntRectangle, cause: Interactor, time: Instant, id: Long, block: Block, configuration: Any?) : TilePlacedLog(position, cause, time, id, block, configuration) {
+    constructor(tile: Tile, cause: Interactor, block: Block, configuration: Any?) : this(tile.linkedArea(), cause, Instant.now(), lastID++, block, configuration)
+
     override fun toString(): String {
         return "${cause.name.stripColors()} ${Core.bundle.get("client.putdown")} ${block.localizedName}"
     }
@@ -208,7 +92,9 @@ class BlockPayloadDropLog(tile: Tile, cause: Interactor, block: Block, configura
     override fun toShortString() = "${cause.shortName.stripColors().subSequence(0, min(16, cause.shortName.stripColors().length))}${if (cause.shortName.stripColors().length > 16) "..." else ""} ${Core.bundle.get("client.putdown")} ${block.localizedName}"
 }
 
-open class TileBreakLog(tile: Tile, cause: Interactor, val block: Block) : TileLog(tile, cause) {
+open class TileBreakLog(position: IntRectangle, cause: Interactor, time: Instant, id: Long, val block: Block) : TileLog(position, cause, time, id) {
+    constructor(tile: Tile, cause: Interactor, block: Block) : this(tile.linkedArea(), cause, Instant.now(), lastID++, block)
+
     override fun apply(previous: TileState) {
         previous.block = Blocks.air
         previous.configuration = null
@@ -221,7 +107,9 @@ open class TileBreakLog(tile: Tile, cause: Interactor, val block: Block) : TileL
     override fun toShortString() = "${cause.shortName.stripColors().subSequence(0, min(16, cause.shortName.stripColors().length))}${if (cause.shortName.stripColors().length > 16) "..." else ""} ${Core.bundle.get("client.broke")} ${block.localizedName}"
 }
 
-class BlockPayloadPickupLog(tile: Tile, cause: Interactor, block: Block) : TileBreakLog(tile, cause, block) {
+class BlockPayloadPickupLog(position: IntRectangle, cause: Interactor, time: Instant, id: Long, block: Block) : TileBreakLog(position, cause, time, id, block) {
+    constructor(tile: Tile, cause: Interactor, block: Block) : this(tile.linkedArea(), cause, Instant.now(), lastID++, block)
+
     override fun toString(): String {
         return "${cause.name.stripColors()} ${Core.bundle.get("client.pickedup")} ${block.localizedName}"
     }
@@ -229,7 +117,9 @@ class BlockPayloadPickupLog(tile: Tile, cause: Interactor, block: Block) : TileB
     override fun toShortString() = "${cause.shortName.stripColors().subSequence(0, min(16, cause.shortName.stripColors().length))}${if (cause.shortName.stripColors().length > 16) "..." else ""} ${Core.bundle.get("client.pickedup")} ${block.localizedName}"
 }
 
-class TileDestroyedLog(tile: Tile, block: Block) : TileBreakLog(tile, NoInteractor(), block) {
+class TileDestroyedLog(position: IntRectangle, time: Instant, id: Long, block: Block) : TileBreakLog(position, NoInteractor(), time, id, block) {
+    constructor(tile: Tile, block: Block) : this(tile.linkedArea(), Instant.now(), lastID++, block)
+
     override fun toString(): String {
         return "${block.localizedName} ${Core.bundle.get("client.destroyed")}"
     }
@@ -0,0 +1,74 @@
+package mindustry.client.antigrief
+
+import arc.math.geom.*
+import mindustry.*
+import mindustry.world.*
+
+/**
+ * Preallocated ring of tile log events that haven't been written to a [TileLogStore] yet. Event handlers [push] into
+ * it with a handful of array writes, [TileRecords] then [drain]s it into the store in one batch per frame. Everything
+ * the store needs from the live tile is captured at push time, the snapshot of a tile is only taken for its first log.
+ * Pushing allocates nothing else, though the caller may have allocated the configuration it passes in.
+ *
+ * The drain runs on the main thread, not on a worker: the store, its index and their readers are main thread only, and
+ * the drain reads applied configurations back from the world. Batching moves the per log work out of the event
+ * handlers, but it still happens on the main thread once per frame.
+ */
+class TileLogBuffer(val capacity: Int = 4096) {
+    private val positions = IntArray(capacity)
+    private val origins = IntArray(capacity)
+    private val kinds = ByteArray(capacity)
+    private val blocks = ShortArray(capacity)
+    private val areas = ByteArray(capacity)
+    private val times = LongArray(capacity)
+    private val causes = IntArray(capacity)
+    private val configs = arrayOfNulls<Any>(capacity)
+    private val snapshots = arrayOfNulls<TileState>(capacity)
+    private var start = 0
+    var size = 0
+        private set
+
+    /**
+     * Queues a log for [tile] which is part of the [area] sized building centered on [origin], the buffer is drained
+     * into [store] first if it is full.
+     */
+    fun push(store: TileLogStore, tile: Tile, origin: Tile, area: Int, kind: Byte, cause: Int, block: Block, configuration: Any?) {
+        if (size == capacity) drain(store, false)
+        val i = (start + size++) % capacity
+        positions[i] = tile.pos()
+        origins[i] = origin.pos()
+        kinds[i] = kind
+        blocks[i] = block.id
+        areas[i] = area.toByte()
+        times[i] = System.currentTimeMillis()
+        causes[i] = cause
+        configs[i] = configuration
+        snapshots[i] = if (store.head(tile.x.toInt(), tile.y.toInt()) == -1) TileState(tile) else null
+    }
+
+    /**
+     * Writes all queued logs into [store]. When [applied] is set configurations are read back from the world as the
+     * config events have been handled by now, otherwise the configuration sent with the event is kept.
+     */
+    fun drain(store: TileLogStore, applied: Boolean = true) {
+        while (size > 0) {
+            val i = start
+            val x = Point2.x(positions[i]).toInt()
+            val y = Point2.y(positions[i]).toInt()
+            val row = store.add(x, y, kinds[i], causes[i], blocks[i], origins[i], areas[i].toInt(), times[i], configs[i], snapshots[i])
+            if (applied && row != -1 && kinds[i] == TileLogStore.CONFIGURE) store.setConfiguration(row, Vars.world.tile(x, y)?.build?.config())
+
+            configs[i] = null
+            snapshots[i] = null
+            start = (start + 1) % capacity
+            size--
+        }
+    }
+
+    fun clear() {
+        configs.fill(null)
+        snapshots.fill(null)
+        start = 0
+        size = 0
+    }
+}
@@ -0,0 +1,186 @@
+package mindustry.client.antigrief
+
+import arc.*
+import arc.files.*
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.*
+import mindustry.*
+import java.io.*
+import java.nio.*
+import java.nio.channels.*
+import java.time.*
+
+/**
+ * Memory mapped ring of tile logs for a single server and map so that [TileRecords] keeps its evidence across
+ * reconnects. The layout mirrors [TileLogStore]: a head index with one int per tile followed by fixed size rows, each
+ * row pointing at the sequence number of the previous row on its tile. Row `n` lives in slot `n % capacity`, once the
+ * ring wraps around a chain simply ends at the first overwritten row. Nothing is read at load, chains are only walked
+ * when a tile is inspected. Configurations aren't persisted. New interactor names are written to the `.names` file in
+ * batches by [flush], a segment has to be [close]d once it is replaced so that its mapping is released.
+ */
+class TileLogFile private constructor(private val buffer: MappedByteBuffer, private val names: Fi, val width: Int, val height: Int) {
+    companion object {
+        private const val MAGIC = 0x544C4F47 // TLOG
+        private const val VERSION = 2
+        private const val HEADER_BYTES = 32
+        private const val COUNT_OFFSET = 20
+        private const val KEY_OFFSET = 24 // 64 bit hash of the key, file names only use a 32 bit one and can collide
+        private const val ROW_BYTES = 28
+        private const val FLUSH_INTERVAL = 5000L // Millis between writes of new names
+        const val CAPACITY = 1 shl 18 // ~7 MiB of rows per segment
+        const val MAX_SEGMENTS = 8
+
+        val directory: Fi get() = Core.settings.dataDirectory.child("tilelogs")
+
+        /** Maps the segment for [key], creating it (and evicting the least recently used segments) if it doesn't exist or doesn't match. */
+        fun open(key: String, width: Int, height: Int): TileLogFile? {
+            val name = String.format("%08x", key.hashCode())
+            val file = directory.child("$name.log")
+            val names = directory.child("$name.names")
+            val size = HEADER_BYTES + width * height * 4L + CAPACITY.toLong() * ROW_BYTES
+            var hash = -0x340d631b7bdddcdbL // FNV-1a
+            for (byte in key.toByteArray()) hash = (hash xor (byte.toLong() and 0xffL)) * 0x100000001b3L
+
+            return try {
+                if (!file.exists()) evict()
+                directory.mkdirs()
+                val existing = file.exists()
+                val buffer = RandomAccessFile(file.file(), "rw").use {
+                    if (existing && it.length() != size) Log.warn("Tile log segment for @ is @ bytes instead of @, resetting it", key, it.length(), size)
+                    it.setLength(size) // Otherwise a larger file would never match and be reset on every open
+                    it.channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+                }
+                val valid = existing && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION &&
+                    buffer.getInt(8) == width && buffer.getInt(12) == height && buffer.getInt(16) == CAPACITY && buffer.getLong(KEY_OFFSET) == hash
+                if (!valid) {
+                    if (existing) Log.warn("Tile log segment for @ belongs to another map or version, resetting it", key)
+                    buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, width).putInt(12, height).putInt(16, CAPACITY).putInt(COUNT_OFFSET, 0).putLong(KEY_OFFSET, hash)
+                    for (i in 0 until width * height) buffer.putInt(HEADER_BYTES + i * 4, -1)
+                    names.delete()
+                }
+                file.file().setLastModified(System.currentTimeMillis())
+                TileLogFile(buffer, names, width, height)
+            } catch (e: IOException) {
+                Log.err("Failed to open tile log segment for $key", e)
+                null
+            }
+        }
+
+        private fun evict() {
+            val segments = directory.list().filter { it.extEquals("log") }.sortedBy { it.lastModified() }
+            for (i in 0..segments.size - MAX_SEGMENTS) {
+                segments[i].delete()
+                segments[i].sibling(segments[i].nameWithoutExtension() + ".names").delete()
+            }
+        }
+    }
+
+    private val rowsOffset = HEADER_BYTES + width * height * 4
+    private val unknown = SavedInteractor("unknown", "unknown")
+    private val causes = Seq<Interactor>()
+    private val causeIds = ObjectIntMap<String>()
+    private val localIds = IntIntMap() // Interactors id -> id in this file
+    private val pendingNames = StringBuilder() // Names not written to the names file yet
+    private var lastFlush = Time.millis()
+    private var closed = false
+    /** Total amount of rows ever appended, the newest [CAPACITY] of these are still in the ring. */
+    var count = buffer.getInt(COUNT_OFFSET)
+        private set
+
+    init {
+        if (names.exists()) {
+            val lines = names.readString().split('\n')
+            for (i in 0 until lines.size - 1 step 2) {
+                causeIds.put(lines[i], causes.size)
+                causes.add(SavedInteractor(lines[i], lines[i + 1]))
+            }
+        }
+    }
+
+    /** Appends a row for the tile at [index] (`y * width + x`), this is a handful of writes into the mapped buffer. */
+    fun append(index: Int, position: Int, area: Int, size: Byte, kind: Byte, block: Short, time: Long, cause: Int) {
+        if (closed) return
+        val seq = count++
+        val offset = rowsOffset + (seq % CAPACITY) * ROW_BYTES
+        buffer.putInt(offset, buffer.getInt(HEADER_BYTES + index * 4))
+        buffer.putInt(offset + 4, position)
+        buffer.putInt(offset + 8, area)
+        buffer.put(offset + 12, size)
+        buffer.put(offset + 13, kind)
+        buffer.putShort(offset + 14, block)
+        buffer.putLong(offset + 16, time)
+        buffer.putInt(offset + 24, intern(cause))
+        buffer.putInt(HEADER_BYTES + index * 4, seq)
+        buffer.putInt(COUNT_OFFSET, count)
+    }
+
+    /** Up to [limit] logs on the tile that were appended before [before], newest first. */
+    fun logs(x: Int, y: Int, before: Int, limit: Int): List<TileLog> {
+        if (closed || x !in 0 until width || y !in 0 until height) return emptyList()
+        val output = mutableListOf<TileLog>()
+        var seq = buffer.getInt(HEADER_BYTES + (y * width + x) * 4)
+        while (seq != -1 && seq >= count - CAPACITY && output.size < limit) {
+            val offset = rowsOffset + (seq % CAPACITY) * ROW_BYTES
+            if (seq < before) output.add(log(seq, offset))
+            seq = buffer.getInt(offset)
+        }
+        return output
+    }
+
+    private fun log(seq: Int, offset: Int): TileLog {
+        val corner = buffer.getInt(offset + 8)
+        val area = buffer.get(offset + 12).toInt()
+        return TileLogStore.log(
+            buffer.get(offset + 13),
+            IntRectangle(Point2.x(corner).toInt(), Point2.y(corner).toInt(), area, area),
+            buffer.getInt(offset + 24).let { if (it < causes.size) causes[it] else unknown }, // Names that weren't flushed before the game closed
+            Instant.ofEpochMilli(buffer.getLong(offset + 16)),
+            seq.toLong(),
+            Vars.content.block(buffer.getShort(offset + 14).toInt()),
+            null
+        )
+    }
+
+    private fun intern(id: Int): Int {
+        val local = localIds.get(id, -1)
+        if (local != -1) return local
+        val cause = Interactors[id]
+        val existing = causeIds.get(cause.name, -1)
+        if (existing != -1) return existing.also { localIds.put(id, it) }
+        localIds.put(id, causes.size)
+        val interactor = SavedInteractor(cause.name.replace('\n', ' '), cause.shortName.replace('\n', ' '))
+        causeIds.put(cause.name, causes.size)
+        if (interactor.name != cause.name) causeIds.put(interactor.name, causes.size)
+        causes.add(interactor)
+        pendingNames.append(interactor.name).append('\n').append(interactor.shortName).append('\n')
+        return causes.size - 1
+    }
+
+    /** Writes the names of new interactors to the names file, at most once every [FLUSH_INTERVAL] unless [force]d. */
+    fun flush(force: Boolean = false) {
+        if (pendingNames.isEmpty() || (!force && Time.timeSinceMillis(lastFlush) < FLUSH_INTERVAL)) return
+        lastFlush = Time.millis()
+        try {
+            names.writeString(pendingNames.toString(), true)
+        } catch (e: Exception) {
+            Log.err("Failed to write tile log names", e)
+        }
+        pendingNames.setLength(0)
+    }
+
+    /** Flushes everything and releases the mapping, this file can't be used afterwards. */
+    fun close() {
+        if (closed) return
+        flush(true)
+        buffer.force()
+        closed = true
+        try { // There is no public way to unmap a buffer before it is collected, the file stays locked on windows until then
+            val unsafe = Class.forName("sun.misc.Unsafe")
+            val instance = unsafe.getDeclaredField("theUnsafe").apply { isAccessible = true }.get(null)
+            unsafe.getMethod("invokeCleaner", ByteBuffer::class.java).invoke(instance, buffer)
+        } catch (e: Throwable) { // Not available on android and older jvms, the mapping goes away with the buffer
+            Log.debug("Could not unmap tile log segment: @", e.toString())
+        }
+    }
+}
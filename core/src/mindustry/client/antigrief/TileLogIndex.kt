@@ -0,0 +1,125 @@
+package mindustry.client.antigrief
+
+import arc.math.geom.*
+import arc.struct.*
+import java.util.*
+
+/**
+ * Secondary indices over the rows of a [TileLogStore] for area, time and player queries. Every posting list holds rows
+ * in ascending order (which is also time order), a query picks whichever of the time range, the chunks overlapping the
+ * area or the rows of the matching interactors has the fewest candidates and filters those against the rest.
+ */
+class TileLogIndex(private val store: TileLogStore) {
+    companion object {
+        const val CHUNK_SIZE = 16
+        const val TIME_BUCKET = 1000 // Millis
+        const val ALL_KINDS = 0xFF
+    }
+
+    private val chunksX = (store.width + CHUNK_SIZE - 1) / CHUNK_SIZE
+    private val chunks = arrayOfNulls<IntSeq>(chunksX * ((store.height + CHUNK_SIZE - 1) / CHUNK_SIZE))
+    private val causes = Seq<IntSeq>() // Indexed by Interactors id
+    private val buckets = IntSeq() // buckets[i] is the first row logged at or after i * TIME_BUCKET millis into the store
+
+    fun add(row: Int, x: Int, y: Int, cause: Int, time: Int) {
+        val chunk = (y / CHUNK_SIZE) * chunksX + x / CHUNK_SIZE
+        (chunks[chunk] ?: IntSeq().also { chunks[chunk] = it }).add(row)
+        while (causes.size <= cause) causes.add(IntSeq())
+        causes[cause].add(row)
+        val bucket = time / TIME_BUCKET
+        while (buckets.size <= bucket) buckets.add(row)
+    }
+
+    /**
+     * Rows inside the rectangle with bottom left corner ([x], [y]) logged at or after [since] (epoch millis) by an
+     * interactor matching [cause] (anyone if null) with a kind in [kinds] (a mask of `1 shl kind`), oldest first.
+     * Rows are produced lazily as the sequence is consumed.
+     */
+    fun query(x: Int, y: Int, width: Int, height: Int, since: Long, cause: ((Interactor) -> Boolean)? = null, kinds: Int = ALL_KINDS): Sequence<Int> {
+        val start = firstRow(since)
+        val minX = x.coerceAtLeast(0)
+        val minY = y.coerceAtLeast(0)
+        val maxX = (x + width - 1).coerceAtMost(store.width - 1)
+        val maxY = (y + height - 1).coerceAtMost(store.height - 1)
+        if (minX > maxX || minY > maxY || start >= store.size) return emptySequence()
+
+        val causeIds = if (cause == null) null else IntSet()
+        val causeLists = Seq<IntSeq>()
+        if (cause != null) {
+            for (i in 0 until causes.size) {
+                if (!cause(Interactors[i])) continue
+                causeIds!!.add(i)
+                causeLists.add(causes[i])
+            }
+            if (causeLists.isEmpty) return emptySequence()
+        }
+
+        val areaLists = Seq<IntSeq>()
+        for (cy in minY / CHUNK_SIZE..maxY / CHUNK_SIZE) {
+            for (cx in minX / CHUNK_SIZE..maxX / CHUNK_SIZE) chunks[cy * chunksX + cx]?.let { areaLists.add(it) }
+        }
+
+        val timeCost = store.size - start
+        val areaCost = cost(areaLists, start)
+        val causeCost = if (causeIds == null) Int.MAX_VALUE else cost(causeLists, start)
+
+        val candidates = when {
+            areaCost <= timeCost && areaCost <= causeCost -> merge(areaLists, start)
+            causeCost <= timeCost -> merge(causeLists, start)
+            else -> (start until store.size).asSequence()
+        }
+
+        return candidates.filter { row ->
+            val position = store.position(row)
+            Point2.x(position).toInt() in minX..maxX && Point2.y(position).toInt() in minY..maxY &&
+                (causeIds == null || causeIds.contains(store.cause(row))) &&
+                (kinds and (1 shl store.kind(row).toInt())) != 0
+        }
+    }
+
+    /** The first row logged at or after [since] epoch millis. */
+    private fun firstRow(since: Long): Int {
+        val time = since - store.epoch
+        if (time <= 0) return 0
+        val bucket = time / TIME_BUCKET
+        if (bucket >= buckets.size) return store.size
+        var low = buckets[bucket.toInt()]
+        var high = if (bucket + 1 < buckets.size) buckets[bucket.toInt() + 1] else store.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (store.relativeTime(mid) < time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    private fun cost(lists: Seq<IntSeq>, start: Int): Int {
+        var total = 0
+        for (list in lists) total += list.size - lowerBound(list, start)
+        return total
+    }
+
+    /** K-way merge of ascending posting lists starting at row [start]. */
+    private fun merge(lists: Seq<IntSeq>, start: Int): Sequence<Int> = sequence {
+        val cursors = PriorityQueue<IntArray>(lists.size.coerceAtLeast(1), compareBy<IntArray> { lists[it[0]][it[1]] }) // [list, position]
+        for (i in 0 until lists.size) {
+            val position = lowerBound(lists[i], start)
+            if (position < lists[i].size) cursors.add(intArrayOf(i, position))
+        }
+        while (cursors.isNotEmpty()) {
+            val cursor = cursors.poll()
+            val list = lists[cursor[0]]
+            yield(list[cursor[1]])
+            if (++cursor[1] < list.size) cursors.add(cursor)
+        }
+    }
+
+    private fun lowerBound(list: IntSeq, value: Int): Int {
+        var low = 0
+        var high = list.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (list[mid] < value) low = mid + 1 else high = mid
+        }
+        return low
+    }
+}
@@ -0,0 +1,244 @@
+package mindustry.client.antigrief
+
+import arc.math.geom.*
+import arc.struct.*
+import mindustry.*
+import mindustry.world.*
+import java.time.*
+
+/**
+ * Column store backing [TileRecords]. Each log is one row spread over primitive arrays instead of a [TileLog] object,
+ * rows of the same tile are chained newest to oldest through [prev] and [heads] holds the newest row of every tile.
+ * [TileLog]s are only materialized when something asks for them (the UI).
+ *
+ * Every [KEYFRAME_INTERVAL] logs a tile gets a [TileState] keyframe so that reconstructing any state only replays a
+ * bounded amount of logs instead of the whole history, no matter how many times the tile was griefed and rebuilt. The
+ * first keyframe is the snapshot of the live tile, later ones are replayed from the previous keyframe.
+ *
+ * When a [history] file is attached every row is also appended to it, rows it held before [sessionStart] are the
+ * logs of previous sessions on the same server and map.
+ */
+class TileLogStore(val width: Int, val height: Int, val history: TileLogFile? = null) {
+    companion object {
+        const val CONFIGURE: Byte = 0
+        const val PLACE: Byte = 1
+        const val PAYLOAD_DROP: Byte = 2
+        const val BREAK: Byte = 3
+        const val PAYLOAD_PICKUP: Byte = 4
+        const val DESTROY: Byte = 5
+
+        const val KEYFRAME_INTERVAL = 32
+        private const val INITIAL_CAPACITY = 1024
+
+        fun log(kind: Byte, position: IntRectangle, cause: Interactor, time: Instant, id: Long, block: Block, configuration: Any?): TileLog {
+            return when (kind) {
+                CONFIGURE -> ConfigureTileLog(position, cause, time, id, block, configuration)
+                PLACE -> TilePlacedLog(position, cause, time, id, block, configuration)
+                PAYLOAD_DROP -> BlockPayloadDropLog(position, cause, time, id, block, configuration)
+                BREAK -> TileBreakLog(position, cause, time, id, block)
+                PAYLOAD_PICKUP -> BlockPayloadPickupLog(position, cause, time, id, block)
+                else -> TileDestroyedLog(position, time, id, block)
+            }
+        }
+    }
+
+    /** Epoch millis that [times] are relative to, an int covers ~24 days which is plenty for one map. */
+    val epoch = System.currentTimeMillis()
+    /** Amount of rows the [history] had when this store was created. */
+    val sessionStart = history?.count ?: 0
+    /** Amount of rows in the store. */
+    var size = 0
+        private set
+
+    private val heads = IntArray(width * height).apply { fill(-1) }
+    private var positions = IntArray(INITIAL_CAPACITY) // Point2 packed position of the tile the row belongs to
+    private var areas = IntArray(INITIAL_CAPACITY) // Point2 packed top left corner of the building the tile was part of
+    private var sizes = ByteArray(INITIAL_CAPACITY) // Side length of that building
+    private var kinds = ByteArray(INITIAL_CAPACITY)
+    private var blocks = ShortArray(INITIAL_CAPACITY)
+    private var times = IntArray(INITIAL_CAPACITY)
+    private var causes = IntArray(INITIAL_CAPACITY)
+    private var ordinals = IntArray(INITIAL_CAPACITY) // Index of the row among the rows of its tile
+    private var prev = IntArray(INITIAL_CAPACITY)
+    private var next = IntArray(INITIAL_CAPACITY)
+    private val configs = IntMap<Any>() // Sparse as most logs don't carry a configuration
+    private val keyframes = IntMap<Keyframes>()
+
+    val index = TileLogIndex(this)
+
+    fun contains(x: Int, y: Int) = x in 0 until width && y in 0 until height
+
+    /**
+     * Appends a log for the tile at ([x], [y]) and returns its row, or -1 if the tile is outside the store. The tile is
+     * part of the [area] sized building centered on the packed position [origin]. [snapshot] is the state of the tile
+     * before the log, it is only used (and only needs to be provided) for the first log on a tile.
+     */
+    fun add(x: Int, y: Int, kind: Byte, cause: Int, block: Short, origin: Int, area: Int, time: Long, configuration: Any?, snapshot: TileState?): Int {
+        if (!contains(x, y)) return -1
+        val index = y * width + x
+        val head = heads[index]
+        val ordinal = if (head == -1) 0 else ordinals[head] + 1
+
+        if (ordinal % KEYFRAME_INTERVAL == 0) {
+            val state = if (head == -1) snapshot ?: TileState(Vars.world.tile(x, y)) else state(x, y, ordinal - 1)!!
+            val frames = if (head == -1) Keyframes().also { keyframes.put(index, it) } else keyframes[index]
+            frames.states.add(state)
+            frames.rows.add(size)
+        }
+        if (size == positions.size) grow()
+        val row = size++
+
+        // Same area as TileLog.linkedArea but without allocating the rectangle
+        val offset = (area - 1) / 2
+
+        positions[row] = Point2.pack(x, y)
+        areas[row] = Point2.pack(Point2.x(origin) - offset, Point2.y(origin) - offset + area - 1)
+        sizes[row] = area.toByte()
+        kinds[row] = kind
+        blocks[row] = block
+        times[row] = (time - epoch).coerceAtLeast(0).toInt()
+        causes[row] = cause
+        ordinals[row] = ordinal
+        prev[row] = head
+        next[row] = -1
+        if (head != -1) next[head] = row
+        if (configuration != null) configs.put(row, configuration)
+        heads[index] = row
+        this.index.add(row, x, y, causes[row], times[row])
+        history?.append(index, positions[row], areas[row], sizes[row], kind, blocks[row], epoch + times[row], cause)
+        return row
+    }
+
+    fun setConfiguration(row: Int, configuration: Any?) {
+        if (configuration == null) configs.remove(row)
+        else configs.put(row, configuration)
+    }
+
+    /** The newest row of the tile, or -1 if it has no logs. */
+    fun head(x: Int, y: Int) = if (contains(x, y)) heads[y * width + x] else -1
+
+    /** The row logged on the same tile before [row], or -1. */
+    fun prev(row: Int) = prev[row]
+
+    fun count(x: Int, y: Int): Int {
+        val head = head(x, y)
+        return if (head == -1) 0 else ordinals[head] + 1
+    }
+
+    /** The state of the tile before its first log. */
+    fun snapshot(x: Int, y: Int): TileState? = if (contains(x, y)) keyframes[y * width + x]?.states?.first() else null
+
+    /** The row of the log at [ordinal] on the tile, found through the closest keyframe. */
+    fun row(x: Int, y: Int, ordinal: Int): Int {
+        if (ordinal !in 0 until count(x, y)) return -1
+        val frame = ordinal / KEYFRAME_INTERVAL
+        var row = keyframes[y * width + x].rows[frame]
+        repeat(ordinal - frame * KEYFRAME_INTERVAL) { row = next[row] }
+        return row
+    }
+
+    /** The state of the tile after the log at [ordinal] was applied, replays at most [KEYFRAME_INTERVAL] logs. */
+    fun state(x: Int, y: Int, ordinal: Int): TileState? {
+        if (ordinal !in 0 until count(x, y)) return null
+        val frame = ordinal / KEYFRAME_INTERVAL
+        val frames = keyframes[y * width + x]
+        val state = frames.states[frame].clone()
+        var row = frames.rows[frame]
+        repeat(ordinal - frame * KEYFRAME_INTERVAL + 1) {
+            log(row).apply(state)
+            row = next[row]
+        }
+        return state
+    }
+
+    /** Ordinal of the last log on the tile at or before [time] epoch millis, or -1 if there is none. */
+    fun ordinalAt(x: Int, y: Int, time: Long): Int {
+        if (count(x, y) == 0) return -1
+        val rows = keyframes[y * width + x].rows
+        val relative = time - epoch
+
+        var frame = -1 // Last keyframe logged at or before the time
+        var low = 0
+        var high = rows.size - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (times[rows[mid]] <= relative) {
+                frame = mid
+                low = mid + 1
+            } else high = mid - 1
+        }
+        if (frame == -1) return -1
+
+        var ordinal = frame * KEYFRAME_INTERVAL
+        var row = rows[frame]
+        while (next[row] != -1 && times[next[row]] <= relative) {
+            row = next[row]
+            ordinal++
+        }
+        return ordinal
+    }
+
+    /** Rows of the tile, oldest first. */
+    fun rows(x: Int, y: Int): IntArray {
+        val out = IntArray(count(x, y))
+        var row = head(x, y)
+        while (row != -1) {
+            out[ordinals[row]] = row
+            row = prev[row]
+        }
+        return out
+    }
+
+    fun position(row: Int) = positions[row]
+
+    fun kind(row: Int) = kinds[row]
+
+    /** Side length of the building the row's tile was part of. */
+    fun area(row: Int) = sizes[row].toInt()
+
+    /** Packed center of the building the row's tile was part of. */
+    fun origin(row: Int): Int {
+        val area = sizes[row]
+        val offset = (area - 1) / 2
+        return Point2.pack(Point2.x(areas[row]) + offset, Point2.y(areas[row]) + offset - area + 1)
+    }
+
+    fun time(row: Int) = epoch + times[row]
+
+    /** Millis since [epoch] at which the row was logged. */
+    fun relativeTime(row: Int) = times[row]
+
+    /** [Interactors] id of the interactor that caused the row. */
+    fun cause(row: Int) = causes[row]
+
+    /** Materializes the row into a [TileLog], only meant to be used for display. */
+    fun log(row: Int): TileLog {
+        val corner = areas[row]
+        val area = sizes[row].toInt()
+        val position = IntRectangle(Point2.x(corner).toInt(), Point2.y(corner).toInt(), area, area)
+        return log(kinds[row], position, Interactors[causes[row]], Instant.ofEpochMilli(time(row)), row.toLong(), Vars.content.block(blocks[row].toInt()), configs[row])
+    }
+
+    /** Approximate heap use of the index and columns in bytes, configurations and keyframes aren't counted. */
+    fun memoryUsage() = heads.size * 4L + positions.size * (7 * 4L + 2 * 1L + 2L)
+
+    private fun grow() {
+        val capacity = positions.size * 2
+        positions = positions.copyOf(capacity)
+        areas = areas.copyOf(capacity)
+        sizes = sizes.copyOf(capacity)
+        kinds = kinds.copyOf(capacity)
+        blocks = blocks.copyOf(capacity)
+        times = times.copyOf(capacity)
+        causes = causes.copyOf(capacity)
+        ordinals = ordinals.copyOf(capacity)
+        prev = prev.copyOf(capacity)
+        next = next.copyOf(capacity)
+    }
+
+    /** Keyframe `i` is the state before the log at ordinal `i * KEYFRAME_INTERVAL`, which is at `rows[i]`. */
+    private class Keyframes {
+        val states = Seq<TileState>()
+        val rows = IntSeq()
+    }
+}
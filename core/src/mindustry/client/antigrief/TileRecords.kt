@@ -1,76 +1,234 @@
 package mindustry.client.antigrief
 
 import arc.*
+import arc.graphics.*
+import arc.scene.*
+import arc.scene.ui.layout.*
+import arc.util.*
 import mindustry.*
 import mindustry.client.*
 import mindustry.client.utils.*
 import mindustry.content.*
+import mindustry.core.*
 import mindustry.game.*
+import mindustry.input.*
 import mindustry.world.*
 import mindustry.world.blocks.*
+import mindustry.world.blocks.power.*
 
 object TileRecords {
-    private var records: Array<Array<TileRecord>> = arrayOf(arrayOf())
+    private var store = TileLogStore(0, 0)
+    private val buffer = TileLogBuffer()
+    /** The rollback that is currently being computed or applied. */
+    var rollback: Rollback? = null
+        private set
+    val detector = GriefDetector(::warn)
 
     fun initialize() {
         Events.on(EventType.WorldLoadEvent::class.java) {
-            if (!ClientVars.syncing) records = Array(Vars.world.width()) { x -> Array(Vars.world.height()) { y -> TileRecord(x, y) } }
+            if (ClientVars.syncing) return@on
+            buffer.clear()
+            rollback = null
+            store.history?.close()
+            val history = if (Core.settings.getBool("persistentlogs")) TileLogFile.open(logKey(), Vars.world.width(), Vars.world.height()) else null
+            store = TileLogStore(Vars.world.width(), Vars.world.height(), history)
+            Log.debug("Tile log store for ${store.width}x${store.height} uses ${store.memoryUsage() / 1024} KiB")
         }
 
+        Events.on(EventType.DisposeEvent::class.java) { store.history?.close() }
+
         Events.on(EventType.BlockBuildBeginEventBefore::class.java) {
             if (it.newBlock == null || it.newBlock == Blocks.air) {
-                it.tile.getLinkedTiles { tile ->
-                    addLog(tile, TileBreakLog(tile, it.unit.toInteractor(), tile.block()))
-                }
+                val block = it.tile.block()
+                val cause = Interactors.id(it.unit)
+                push(it.tile, block, TileLogStore.BREAK, cause, block, null)
+                if (it.tile.team() == Vars.player.team()) detect(cause, GriefDetector.DECONSTRUCT, it.tile)
             } else {
-                it.tile.getLinkedTilesAs(it.newBlock) { tile ->
-                    addLog(tile, TilePlacedLog(tile, it.unit.toInteractor(), it.newBlock, tile.build?.config()))
-                }
+                push(it.tile, it.newBlock, TileLogStore.PLACE, Interactors.id(it.unit), it.newBlock, it.tile.build?.config())
             }
         }
 
         Events.on(EventType.ConfigEventBefore::class.java) {
-            it.tile.tile.getLinkedTiles { tile ->
-                addLog(tile, ConfigureTileLog(tile, it.player.toInteractor(), tile.block(), it.value))
+            val block = it.tile.tile.block()
+            val cause = Interactors.id(it.player)
+            push(it.tile.tile, block, TileLogStore.CONFIGURE, cause, block, it.value)
+            if (block is NuclearReactor || block is ImpactReactor || (it.value == Items.thorium && it.tile.proximity.contains { b -> b.block is NuclearReactor })) {
+                detect(cause, GriefDetector.REACTOR, it.tile.tile)
+            } else if (block is PowerNode && it.value is Int && it.tile.power.links.contains(it.value as Int)) {
+                detect(cause, GriefDetector.UNLINK, it.tile.tile)
             }
         }
 
         Events.on(EventType.BuildPayloadPickup::class.java) {
-            it.tile.getLinkedTiles { tile ->
-                addLog(tile, BlockPayloadPickupLog(tile, it.unit.toInteractor(), it.building.block))
-            }
+            push(it.tile, it.tile.block(), TileLogStore.PAYLOAD_PICKUP, Interactors.id(it.unit), it.building.block, null)
         }
 
         Events.on(EventType.BuildPayloadDrop::class.java) {
-            it.tile.getLinkedTilesAs(it.building.block) { tile ->
-                addLog(tile, BlockPayloadDropLog(tile, it.unit.toInteractor(), it.building.block, it.building.config()))
-            }
+            push(it.tile, it.building.block, TileLogStore.PAYLOAD_DROP, Interactors.id(it.unit), it.building.block, it.building.config())
         }
 
         Events.on(EventType.BlockDestroyEvent::class.java) {
             if (it.tile.team() != Vars.player.team()) return@on // Couldn't care less about enemies, especially in flood
-            it.tile.getLinkedTiles { tile ->
-                addLog(tile, TileDestroyedLog(tile,
-                    if (tile.build is ConstructBlock.ConstructBuild) (tile.build as ConstructBlock.ConstructBuild).current ?:
-                    (tile.build as ConstructBlock.ConstructBuild).previous
-                    else tile.block() ?: Blocks.air))
+            val build = it.tile.build
+            push(it.tile, it.tile.block(), TileLogStore.DESTROY, Interactors.NONE,
+                if (build is ConstructBlock.ConstructBuild) build.current ?: build.previous
+                else it.tile.block() ?: Blocks.air, null)
+        }
+    }
+
+    private fun detect(cause: Int, pattern: Int, tile: Tile) {
+        if (Core.settings.getBool("griefwarnings")) detector.event(cause, pattern, tile.x.toInt(), tile.y.toInt(), System.currentTimeMillis())
+    }
+
+    private fun warn(cause: Int, pattern: Int, count: Int, x: Int, y: Int) {
+        val action = Core.bundle.get(when (pattern) {
+            GriefDetector.DECONSTRUCT -> "client.grief.deconstruct"
+            GriefDetector.REACTOR -> "client.grief.reactor"
+            else -> "client.grief.unlink"
+        })
+        val msg = Core.bundle.format("client.grief.warning", Interactors[cause].name, action, count, GriefDetector.WINDOW / 1000, x, y, Core.keybinds.get(Binding.navigate_to_camera).key.name)
+        Vars.ui.chatfrag.addMessage(msg, null, Color.scarlet.cpy().mul(0.75f), "", msg)
+        ClientVars.lastSentPos.set(x.toFloat(), y.toFloat())
+    }
+
+    /** Writes the logs queued this frame into the store, called once per frame. */
+    fun update() {
+        buffer.drain(store)
+        store.history?.flush()
+    }
+
+    /** Advances the rollback in progress by one frame's worth of work, only to be called once per frame. */
+    fun stepRollback() {
+        if (rollback?.update() == true) rollback = null
+    }
+
+    /** Starts reverting the area to how it was at [time] epoch millis, replacing any rollback in progress. */
+    fun rollback(x: Int, y: Int, width: Int, height: Int, time: Long, apply: Boolean, computed: (Rollback) -> Unit) {
+        buffer.drain(store)
+        rollback = Rollback(store, x, y, width, height, time, apply, computed)
+    }
+
+    /** Queues a log for every tile [footprint] covers when placed on [center], same tiles as [Tile.getLinkedTilesAs] without the callback. */
+    private fun push(center: Tile, footprint: Block, kind: Byte, cause: Int, block: Block, configuration: Any?) {
+        if (!footprint.isMultiblock()) {
+            buffer.push(store, center, center, 1, kind, cause, block, configuration)
+            return
+        }
+        val offset = footprint.sizeOffset
+        for (dx in 0 until footprint.size) {
+            for (dy in 0 until footprint.size) {
+                val tile = Vars.world.tile(center.x + dx + offset, center.y + dy + offset) ?: continue
+                buffer.push(store, tile, center, footprint.size, kind, cause, block, configuration)
             }
         }
     }
 
-    operator fun get(x: Int, y: Int): TileRecord? = records.getOrNull(x)?.getOrNull(y)
+    /** Identifies the server and map so that rejoining reattaches to the same [TileLogFile]. */
+    private fun logKey(): String {
+        val host = Vars.ui.join.lastHost
+        val server = if (!Vars.net.client()) "local" else if (host == null) "unknown" else "${host.address}:${host.port}"
+        return "$server ${Vars.state.map.name()}"
+    }
+
+    operator fun get(x: Int, y: Int): TileRecord? {
+        buffer.drain(store)
+        return if (store.contains(x, y)) TileRecord(store, x, y) else null
+    }
 
     operator fun get(tile: Tile): TileRecord? = this[tile.x.toInt(), tile.y.toInt()]
 
-    private fun addLog(tile: Tile, log: TileLog) {
-        val logs = this[tile] ?: return
-        logs.add(log, tile)
+    /**
+     * Rows of the logs in the given area since [since] epoch millis by interactors matching [cause], oldest first, see
+     * [TileLogIndex.query]. Only the rows that are shown need to be turned into logs with [log].
+     */
+    fun query(x: Int, y: Int, width: Int, height: Int, since: Long, cause: ((Interactor) -> Boolean)? = null, kinds: Int = TileLogIndex.ALL_KINDS): Sequence<Int> {
+        buffer.drain(store)
+        return store.index.query(x, y, width, height, since, cause, kinds)
     }
 
+    /** The log in [row] of the current store, as returned by [query]. */
+    fun log(row: Int): TileLog = store.log(row)
+
+    /** Identifies the event that logged [row], the rows of every tile of a multiblock share it. */
+    fun event(row: Int) = Triple(store.origin(row), store.kind(row), store.time(row))
+
     fun show(tile: Tile) {
         dialog("Logs") {
             cont.add(TileRecords[tile]?.toElement())
             addCloseButton()
         }.show()
     }
-}
\ No newline at end of file
+}
+
+/** View over the logs of a single tile in a [TileLogStore], these are cheap and created on demand. */
+class TileRecord(private val store: TileLogStore, val x: Int, val y: Int) {
+    val size get() = store.count(x, y)
+
+    /** The state of the tile after the log at [index] was applied. */
+    operator fun get(index: Int): TileState? {
+        if (index !in 0 until size) throw IndexOutOfBoundsException("Index $index is out of bounds! (size: $size)")
+        return store.state(x, y, index)
+    }
+
+    /** The log at [index], oldest first. */
+    fun log(index: Int): TileLog? {
+        val row = store.row(x, y, index)
+        return if (row == -1) null else store.log(row)
+    }
+
+    /** The last [count] logs on this tile, oldest first. */
+    fun lastLogs(count: Int): List<TileLog> {
+        val output = ArrayList<TileLog>(count.coerceAtMost(size))
+        var row = store.head(x, y)
+        while (row != -1 && output.size < count) {
+            output.add(store.log(row))
+            row = store.prev(row)
+        }
+        if (output.size < count) store.history?.let { output.addAll(it.logs(x, y, store.sessionStart, count - output.size)) }
+        output.reverse()
+        return output
+    }
+
+    fun toElement(): Element {
+        val table = Table()
+        table.add(Core.bundle.format("client.logfor", x, y)).top()
+        table.row()
+
+        table.pane { t ->
+            val previous = store.history?.logs(x, y, store.sessionStart, Int.MAX_VALUE).orEmpty()
+            if (previous.isNotEmpty()) {
+                t.add("@client.previoussessions").left()
+                t.row()
+                for (log in previous.asReversed()) {
+                    t.add(log.toString() + " (" + UI.formatTime((Time.timeSinceMillis(log.time.toEpochMilli()) / 16.667).toFloat()) + ")").left()
+                    t.row()
+                }
+            }
+
+            val snapshot = store.snapshot(x, y) ?: return@pane
+
+            t.button("@client.initialstate") {
+                dialog("@client.log") {
+                    cont.add(snapshot.toElement())
+                    addCloseButton()
+                }.show()
+            }.wrap(false)
+            t.row()
+
+            for ((index, row) in store.rows(x, y).withIndex()) {
+                val log = store.log(row)
+                t.add(log.toString() + " (" + UI.formatTime((Time.timeSinceMillis(log.time.toEpochMilli()) / 16.667).toFloat()) + ")").left()
+                t.row()
+                t.button("@client.state") {
+                    dialog("@client.log") {
+                        cont.add(get(index)?.toElement())
+                        addCloseButton()
+                    }.show()
+                }.wrap(false)
+                t.row()
+            }
+        }.grow()
+
+        return table
+    }
+}
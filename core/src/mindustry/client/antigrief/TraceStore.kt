@@ -0,0 +1,143 @@
+package mindustry.client.antigrief
+
+import arc.files.*
+import arc.struct.*
+import arc.util.*
+import mindustry.client.utils.*
+import mindustry.net.*
+import java.io.*
+
+/**
+ * Traces of players that left, one per person: a trace that shares a uuid or an ip with an earlier one replaces it.
+ * Traces are indexed by both so that "seen before?" is a pair of hash lookups, and they are kept in least recently
+ * used order so that only the newest [capacity] survive. The store is written to disk as a small compressed blob.
+ */
+class TraceStore(var capacity: Int) : Iterable<TraceStore.Trace> {
+    companion object {
+        private const val VERSION = 1
+    }
+
+    /** A player that left, their name is kept as an [Interactors] id. */
+    class Trace(var name: Int, var info: Administration.TraceInfo) {
+        internal var newer: Trace? = null
+        internal var older: Trace? = null
+    }
+
+    private val byUuid = ObjectMap<String, Trace>()
+    private val byIp = ObjectMap<String, Trace>()
+    private var newest: Trace? = null
+    private var oldest: Trace? = null
+    var size = 0
+        private set
+    /** Whether anything changed since the store was last written or read. */
+    var dirty = false
+        private set
+
+    fun byUuid(uuid: String?): Trace? = if (uuid == null) null else byUuid[uuid]
+
+    fun byIp(ip: String?): Trace? = if (ip == null) null else byIp[ip]
+
+    fun seen(info: Administration.TraceInfo) = byUuid(info.uuid) != null || byIp(info.ip) != null
+
+    /** Records that the player [name] with [info] left, merging it with the traces that share its uuid or ip. */
+    fun add(name: Int, info: Administration.TraceInfo) {
+        val trace = byUuid(info.uuid) ?: byIp(info.ip)
+        byIp(info.ip)?.let { if (it !== trace) remove(it) } // The uuid and the ip were on two different traces
+        if (trace == null) {
+            insert(Trace(name, info))
+        } else {
+            unindex(trace)
+            unlink(trace)
+            trace.name = name
+            trace.info = info
+            insert(trace)
+        }
+        while (size > capacity) remove(oldest!!)
+        dirty = true
+    }
+
+    fun clear() {
+        byUuid.clear()
+        byIp.clear()
+        newest = null
+        oldest = null
+        size = 0
+        dirty = true
+    }
+
+    /** Newest first. */
+    override fun iterator() = generateSequence(newest) { it.older }.iterator()
+
+    fun write(file: Fi) {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { out ->
+            out.writeInt(VERSION)
+            out.writeInt(size)
+            var trace = oldest
+            while (trace != null) {
+                val info = trace.info
+                out.writeUTF(Interactors[trace.name].name)
+                out.writeUTF(info.ip ?: "")
+                out.writeUTF(info.uuid ?: "")
+                out.writeByte((if (info.modded) 1 else 0) or (if (info.mobile) 2 else 0))
+                out.writeInt(info.timesJoined)
+                out.writeInt(info.timesKicked)
+                trace = trace.newer
+            }
+        }
+        file.writeBytes(bytes.toByteArray().compress())
+        dirty = false
+    }
+
+    /** Replaces the contents of this store with those written to [file], the store is left empty if it can't be read. */
+    fun read(file: Fi) {
+        clear()
+        dirty = false
+        if (!file.exists()) return
+        try {
+            DataInputStream(file.readBytes().inflate().inputStream()).use { input ->
+                if (input.readInt() != VERSION) return
+                repeat(input.readInt()) {
+                    val name = input.readUTF()
+                    val ip = input.readUTF()
+                    val uuid = input.readUTF()
+                    val flags = input.readByte().toInt()
+                    val info = Administration.TraceInfo(ip, uuid, (flags and 1) != 0, (flags and 2) != 0, input.readInt(), input.readInt())
+                    add(Interactors.intern(SavedInteractor(name, name)), info)
+                }
+            }
+        } catch (e: Exception) {
+            Log.err("Failed to read traces from $file", e)
+            clear()
+        }
+        dirty = false
+    }
+
+    private fun insert(trace: Trace) {
+        trace.older = newest
+        newest?.newer = trace
+        newest = trace
+        if (oldest == null) oldest = trace
+        trace.info.uuid?.let { byUuid.put(it, trace) }
+        trace.info.ip?.let { byIp.put(it, trace) }
+        size++
+    }
+
+    private fun remove(trace: Trace) {
+        unindex(trace)
+        unlink(trace)
+    }
+
+    private fun unindex(trace: Trace) {
+        trace.info.uuid?.let { if (byUuid[it] === trace) byUuid.remove(it) }
+        trace.info.ip?.let { if (byIp[it] === trace) byIp.remove(it) }
+    }
+
+    private fun unlink(trace: Trace) {
+        if (trace.newer == null) newest = trace.older else trace.newer!!.older = trace.older
+        if (trace.older == null) oldest = trace.newer else trace.older!!.newer = trace.newer
+        trace.newer = null
+        trace.older = null
+        size--
+    }
+}
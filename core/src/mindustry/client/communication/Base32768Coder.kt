@@ -2,96 +2,121 @@ package mindustry.client.communication
 
 import mindustry.client.utils.*
 import java.io.*
-import java.math.*
+import java.nio.*
 
 /**
  * You've heard of base64, now get ready for... base32768.  Encodes 15 bits of data into each unicode character.
+ * The bytes with a 1 in front of them are read as one big endian number whose 15 bit digits are written least
+ * significant first, offset by 128, followed by a character holding the byte count.  Digits are moved through a small
+ * bit buffer instead of a [java.math.BigInteger], so the output can be streamed into any [Appendable] and the input
+ * read from any [CharSequence] straight into a [ByteBuffer].
  * FINISHME: 16 bit with an escape character to avoid ascii control chars?  Encode more data in the escape char?
  */
 object Base32768Coder {
     private const val BITS = 15
+    private const val MASK = (1 shl BITS) - 1
+    private const val OFFSET = 128 // Skips ascii and the control characters after it
 
     fun availableBytes(length: Int) = ((length.toDouble() * BITS) / 8).floor()
 
     fun encodedLengthOf(bytes: Int) = ((bytes.toDouble() * 8) / BITS).ceil()
 
-//    private const val MASK = 0b111111111111111U
+    /** Appends the encoding of the remaining bytes of [input] to [out], consuming them. */
+    fun <T : Appendable> encode(input: ByteBuffer, out: T): T {
+        val length = input.remaining()
+        var buffer = 0
+        var bits = 0
+        for (i in input.limit() - 1 downTo input.position()) { // The last byte holds the least significant bits
+            buffer = buffer or ((input.get(i).toInt() and 0xff) shl bits)
+            bits += 8
+            if (bits >= BITS) {
+                out.append(((buffer and MASK) + OFFSET).toChar())
+                buffer = buffer ushr BITS
+                bits -= BITS
+            }
+        }
+        buffer = buffer or (1 shl bits) // The 1 in front of the bytes, so the last digit is never 0
+        bits++
+        while (bits > 0) {
+            out.append(((buffer and MASK) + OFFSET).toChar())
+            buffer = buffer ushr BITS
+            bits -= BITS
+        }
+        val count = length + OFFSET
+        if (Character.isBmpCodePoint(count)) {
+            out.append(count.toChar())
+        } else {
+            out.append(Character.highSurrogate(count)).append(Character.lowSurrogate(count))
+        }
+        input.position(input.limit())
+        return out
+    }
 
     fun encode(input: ByteArray): String {
-        var inp = BigInteger(byteArrayOf(1).plus(input))
-        val out = mutableListOf<Int>()
-        val andValue = 2.toBigInteger().pow(BITS) - 1.toBigInteger()
-        while (inp != BigInteger.ZERO) {
-            out.add((inp and andValue).toInt() + 128)
-            inp = inp shr BITS
+        return encode(ByteBuffer.wrap(input), StringBuilder(encodedLengthOf(input.size + 1) + 2)).toString()
+    }
+
+    /** The number of bytes encoded by the text ending at [end], read from the character before it. */
+    fun decodedLength(input: CharSequence, end: Int) = Character.codePointBefore(input, end) - OFFSET
+
+    /**
+     * Decodes digits written by [encode] into [out] at its position.  The digits can be added in pieces, but the
+     * [length] has to be known up front as the bytes come out last one first.
+     */
+    class Decoder(private val out: ByteBuffer, private val length: Int) {
+        private val start = out.position()
+        private var buffer = 0
+        private var bits = 0
+        private var written = 0
+
+        init {
+            if (length < 0 || length > out.remaining()) throw IOException("Invalid length $length!")
         }
-        return String(out.toIntArray(), 0, out.size) + String(intArrayOf(input.size + 128), 0, 1)
 
-//        val buffer = IntArray(encodedLengthOf(input.size) + 1)
-//        for (i in buffer.indices) {
-//            val bit = i * 15
-//            val num = bit % 8
-//            val n = bit / 8
-//            val res = when (num) {
-//                // 3 byte case
-//                in 2..7 -> {
-//                    var secondZeroed = false
-//                    var thirdZeroed = false
-//
-//                    val firstByte  = if (n < input.size) input[n].toUByte().toUInt() else 0U
-//                    val secondByte = if (n + 1 < input.size) input[n + 1].toUByte().toUInt() else { secondZeroed = true; 0U }
-//                    val thirdByte  = if (n + 2 < input.size) input[n + 2].toUByte().toUInt() else { thirdZeroed = true; 0U }
-//
-//                    // note: problem when i == 7
-//                            /*                    ((firstByte shl (num - 1)).shl(7).and(MASK) or
-//                            (secondByte shl (num - 1)) or
-//                            (thirdByte shr (9 - num)))*/
-//
-//                    ((firstByte shl (num + 6)).and(MASK) or
-//                            (secondByte shl (num - 1)) or
-//                            (thirdByte shr (9 - num)))/*.run {
-//                        // 11111111 11111111 00000000
-//                        //    11111 11111111 11
-//
-//                        // 00111111 11111111
-//                        // we want 16383 (00111111 11111111)
-//                        if (secondZeroed) this shr (15 - (9 - num)) else if (thirdZeroed) this shr (8 - (9 - num)) else this
-//                            }*/
-//                }
-//                // 2 byte cases
-//                0 -> {
-//                    val firstByte   = if (n < input.size) input[n].toUByte().toUInt() else 0U
-//                    val secondByte  = if (n + 1 < input.size) input[n + 1].toUByte().toUInt() else 0U
-//                    ((firstByte shl 7) or (secondByte shr 1)) and MASK
-//                }
-//                else /* 1 */ -> {
-//                    val firstByte   = if (n < input.size) input[n].toUByte().toUInt() else 0U
-//                    val secondByte  = if (n + 1 < input.size) input[n + 1].toUByte().toUInt() else 0U
-//                    (firstByte.shl(1).shr(1) or secondByte) and MASK
-//                }
-//            }
-//            buffer[i] = res.toInt() + 128
-//        }
-//
-////        println(input.joinToString())
-//        println(out.joinToString { it.minus(128).toString(2).padStart(32, '0') })
-//        println(buffer.joinToString { it.minus(128).toString(2).padStart(32, '0') })
-//        return String(buffer, 0, buffer.size) + String(intArrayOf(input.size + 128), 0, 1)
+        /** Adds the digits from [start] until [end], without the length character. */
+        @Throws(IOException::class)
+        fun add(input: CharSequence, start: Int, end: Int): Decoder {
+            for (i in start until end) {
+                val digit = input[i].code - OFFSET
+                if (digit < 0 || digit > MASK) throw IOException("Invalid character ${input[i]}!")
+                buffer = buffer or (digit shl bits)
+                bits += BITS
+                while (bits >= 8 && written < length) {
+                    out.put(this.start + length - 1 - written++, buffer.toByte())
+                    buffer = buffer ushr 8
+                    bits -= 8
+                }
+            }
+            return this
+        }
+
+        /** Moves the position of the output past the decoded bytes, throws if some are missing. */
+        @Throws(IOException::class)
+        fun finish() {
+            if (written < length) throw IOException("Input ended after $written of $length bytes!")
+            out.position(start + length)
+        }
     }
 
+    /** Decodes the text between [start] and [end], including the length character, into [out] at its position. */
     @Throws(IOException::class)
-    fun decode(input: String): ByteArray {
+    fun decode(input: CharSequence, start: Int, end: Int, out: ByteBuffer) {
         try {
-            val length = input.codePointAt(input.length - 1) - 128
-            var out = BigInteger("0")
+            val length = decodedLength(input, end)
+            Decoder(out, length).add(input, start, end - Character.charCount(length + OFFSET)).finish()
+        } catch (e: Exception) {
+            throw e as? IOException ?: IOException(e)
+        }
+    }
 
-            for ((index, s) in input.dropLast(1).chunked(1).withIndex()) {
-                out += (s.codePointAt(0) - 128).toBigInteger() shl (index * BITS)
-            }
-            val outp = out.toByteArray().plus(0)
-            return outp.sliceArray(1..length)
+    @Throws(IOException::class)
+    fun decode(input: String): ByteArray {
+        try {
+            val out = ByteArray(decodedLength(input, input.length))
+            decode(input, 0, input.length, ByteBuffer.wrap(out))
+            return out
         } catch (e: Exception) {
-            throw IOException(e)
+            throw e as? IOException ?: IOException(e)
         }
     }
 
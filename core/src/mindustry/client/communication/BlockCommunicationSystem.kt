@@ -25,6 +25,7 @@ object BlockCommunicationSystem : CommunicationSystem() {
         else -> 512
     }
     override val RATE: Float = 15f // 250ms
+    override val ratelimited get() = logicAvailable || messageAvailable // Build plans don't configure anything
 
     private const val MAX_PRINT_LENGTH = 34
     const val LOGIC_PREFIX = "end\nprint \"client networking, do not edit/remove\""
@@ -72,13 +73,7 @@ object BlockCommunicationSystem : CommunicationSystem() {
 
         val bytes: ByteArray
         try {
-            bytes = Base32768Coder.decode(
-                message.removePrefix(ClientVars.MESSAGE_BLOCK_PREFIX + "\n")
-                    .split("\n").joinToString("") {
-                        it.removePrefix("print \"").removeSuffix("\"")
-                    }
-            ).run { sliceArray(0 until size - 1) }  // FINISHME wtf
-
+            bytes = decodePrints(message, LOGIC_PREFIX.length).run { sliceArray(0 until size - 1) } // Drop the 12 added by sendLogic
         } catch (exception: Exception) {
             return
         }
@@ -123,17 +118,72 @@ object BlockCommunicationSystem : CommunicationSystem() {
 
     private fun sendMessageBlock(bytes: ByteArray): Boolean {
         val message = findMessage() ?: return false // No valid message was found
-        Call.tileConfig(Vars.player, message, ClientVars.MESSAGE_BLOCK_PREFIX + Base32768Coder.encode(bytes))
+        val text = StringBuilder(ClientVars.MESSAGE_BLOCK_PREFIX.length + Base32768Coder.encodedLengthOf(bytes.size + 1) + 2).append(ClientVars.MESSAGE_BLOCK_PREFIX)
+        Call.tileConfig(Vars.player, message, Base32768Coder.encode(bytes.buffer(), text).toString())
         return true
     }
 
     private fun sendLogic(bytes: ByteArray): Boolean {
         val processor = findProcessor() ?: return false // No valid processor was found
-        val value = bytes.plus(12).base32678().chunked(MAX_PRINT_LENGTH).joinToString("\n", prefix = LOGIC_PREFIX + "\n") { "print \"$it\"" }.removeSuffix("\n")
+        // The 12 is there as older clients decoding this can garble the last byte
+        val value = Base32768Coder.encode(bytes.plus(12).buffer(), Prints(StringBuilder(LOGIC_PREFIX).append('\n'))).finish()
         Call.tileConfig(Vars.player, processor, LogicBlock.compress(value, Seq()))
         return true
     }
 
+    /** Writes what is appended to it as `print "..."` lines of up to [MAX_PRINT_LENGTH] characters after [out]. */
+    class Prints(private val out: StringBuilder) : Appendable {
+        private var column = -1 // -1 before the first line
+
+        override fun append(c: Char): Prints {
+            if (column == -1 || column == MAX_PRINT_LENGTH || (column == MAX_PRINT_LENGTH - 1 && c.isHighSurrogate())) { // Keeps surrogate pairs on one line
+                if (column != -1) out.append("\"\n")
+                out.append("print \"")
+                column = 0
+            }
+            out.append(c)
+            column++
+            return this
+        }
+
+        override fun append(csq: CharSequence?) = append(csq, 0, csq?.length ?: 4)
+
+        override fun append(csq: CharSequence?, start: Int, end: Int): Prints {
+            val text = csq ?: "null"
+            for (i in start until end) append(text[i])
+            return this
+        }
+
+        /** Closes the last line and returns the code. */
+        fun finish(): String {
+            if (column != -1) out.append('"')
+            return out.toString()
+        }
+    }
+
+    /** Decodes the Base32768 text spread over the `print "..."` lines of [code] from [start] on, without joining them. */
+    fun decodePrints(code: String, start: Int): ByteArray {
+        val ranges = IntSeq() // Start and end of the text of every line
+        var line = start
+        while (line < code.length) {
+            val end = code.indexOf('\n', line).let { if (it == -1) code.length else it }
+            if (end - line >= 8 && code.startsWith("print \"", line) && code[end - 1] == '"') ranges.add(line + 7, end - 1)
+            line = end + 1
+        }
+        if (ranges.isEmpty) throw IllegalArgumentException("No prints found!")
+
+        val last = ranges.peek()
+        val length = Base32768Coder.decodedLength(code, last)
+        val out = ByteArray(length)
+        val decoder = Base32768Coder.Decoder(out.buffer(), length)
+        for (i in 0 until ranges.size step 2) {
+            val end = if (i == ranges.size - 2) last - Character.charCount(length + 128) else ranges.items[i + 1] // The length isn't a digit
+            decoder.add(code, ranges.items[i], end)
+        }
+        decoder.finish()
+        return out
+    }
+
     override fun send(bytes: ByteArray) {
         if (!sendLogic(bytes) && !sendMessageBlock(bytes)) BuildPlanCommunicationSystem.send(bytes) // Order: Logic > Message > BuildPlan
     }
@@ -18,7 +18,6 @@ object BuildPlanCommunicationSystem : CommunicationSystem() {
     override val MAX_LENGTH get() = 512
     override val RATE = 30f // up to twice a second
     private const val PREFIX = "end\nprint \"gwiogrwog\"\nprint \"%s\"\n"
-    private const val MAX_PRINT_LENGTH = 34
 
     private val lastGotten = mutableMapOf<Int, Int>()
     private val corners get() = listOf(
@@ -46,9 +45,8 @@ object BuildPlanCommunicationSystem : CommunicationSystem() {
                     if (plan == null || lastGotten[p.id] == plan.config?.hashCode()) continue
 
                     lastGotten[p.id] = plan.config.hashCode()
-                    val config = re.replace(plan.config as String, "").lines().joinToString("") { it.removeSurrounding("print \"", "\"") }
-                    val decoded = config.base32678()
-                    decoded ?: return@post
+                    val config = plan.config as String
+                    val decoded = try { BlockCommunicationSystem.decodePrints(config, re.find(config)!!.range.last + 1) } catch (e: Exception) { return@post }
                     listeners.forEach { it(decoded, p.id) }
                 }
                 val time = Time.timeSinceMillis(start)
@@ -62,7 +60,7 @@ object BuildPlanCommunicationSystem : CommunicationSystem() {
             Toast(3f).add("[scarlet]Failed to send packet, build plan networking doesn't work if you can't build.")
             return
         }
-        val config = bytes.base32678().chunked(MAX_PRINT_LENGTH).joinToString("\n", prefix = PREFIX.format(Random.nextLong())) { "print \"$it\"" }
+        val config = Base32768Coder.encode(bytes.buffer(), BlockCommunicationSystem.Prints(StringBuilder(PREFIX.format(Random.nextLong())))).finish()
         val tile = findLocation()
         val plan = BuildPlan(tile.x.toInt(), tile.y.toInt(), 0, Blocks.microProcessor, config)
         // Stores build state. Toggles building off as otherwise it can fail.
@@ -6,7 +6,8 @@ import mindustry.io.*
 import java.io.*
 import kotlin.random.*
 
-class BuildQueueTransmission : Transmission {
+/** Build plans in the [TypeIO] format that every client can read, [CompactBuildQueueTransmission] is what is sent now. */
+open class BuildQueueTransmission : Transmission {
     override var id = Random.nextLong()
     val plans: Array<BuildPlan>
     override val secureOnly: Boolean = false
@@ -17,9 +18,7 @@ class BuildQueueTransmission : Transmission {
 
     constructor(input: ByteArray, id: Long, @Suppress("UNUSED_PARAMETER") senderID: Int) {
         this.id = id
-        val reads = Reads.get(DataInputStream(input.inputStream()))
-        plans = TypeIO.readPlans(reads) ?: throw IllegalArgumentException("Invalid request array!")
-        reads.close()
+        plans = PlanCodec.readAny(input)
     }
 
     override fun serialize(): ByteArray {
@@ -31,3 +30,19 @@ class BuildQueueTransmission : Transmission {
         return array
     }
 }
+
+/**
+ * Build plans encoded with [PlanCodec] and compressed with its dictionary.  This has its own transmission type so that
+ * clients which don't know the encoding drop it as an unknown type instead of failing to inflate a [BuildQueueTransmission].
+ */
+class CompactBuildQueueTransmission : BuildQueueTransmission {
+    constructor(plans: Array<BuildPlan>) : super(plans)
+
+    constructor(input: ByteArray, id: Long, senderID: Int) : super(input, id, senderID)
+
+    override fun serialize(): ByteArray {
+        val stream = ByteArrayOutputStream()
+        PlanCodec.write(DataOutputStream(stream), plans)
+        return stream.toByteArray()
+    }
+}
@@ -10,6 +10,8 @@ abstract class CommunicationSystem {
     abstract val MAX_LENGTH: Int
     /** Ticks (1/60s) to wait between transmissions. */
     abstract val RATE: Float
+    /** Whether sending uses up the config ratelimit, in which case packets are slowed down while it runs low. */
+    open val ratelimited: Boolean get() = false
 
     open val secure: Boolean = false
 
@@ -1,6 +1,8 @@
 package mindustry.client.communication
 
 import arc.util.*
+import mindustry.*
+import mindustry.client.*
 import mindustry.client.communication.syncing.Syncer.*
 import mindustry.client.utils.*
 import java.nio.*
@@ -10,26 +12,36 @@ import java.util.*
 import java.util.concurrent.*
 import java.util.concurrent.locks.*
 import kotlin.concurrent.*
+import kotlin.math.*
 import kotlin.reflect.*
 
 object Packets {
+    /** Lanes of outgoing transmissions, see [CommunicationClient.update]. */
+    const val INTERACTIVE = 0 // Small things a player is waiting on
+    const val NORMAL = 1
+    const val BULK = 2 // Large transmissions that take a while anyways
+    private val laneNames = arrayOf("Interactive", "Normal", "Bulk")
+    private val laneWeights = intArrayOf(4, 2, 1) // Share of the packets each lane gets while they are all busy
+
     /** The list of registered types of [Transmission].  Transmissions MUST be registered here before use. */
     private val registeredTransmissionTypes = listOf<RegisteredTransmission<*>>(
-        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission),
-        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission),  // Kept for compatibility, FINISHME: remove
-        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission),  // Kept for compatibility, FINISHME: remove
-        RegisteredTransmission(BuildQueueTransmission::class, ::BuildQueueTransmission),
-        RegisteredTransmission(TLSDataTransmission::class, ::TLSDataTransmission),
-        RegisteredTransmission(TlsRequestTransmission::class, ::TlsRequestTransmission),
-        RegisteredTransmission(MessageTransmission::class, ::MessageTransmission),
-        RegisteredTransmission(SignatureTransmission::class, ::SignatureTransmission),
-        RegisteredTransmission(CommandTransmission::class, ::CommandTransmission),
-        RegisteredTransmission(ClientMessageTransmission::class, ::ClientMessageTransmission),
-        RegisteredTransmission(ImageTransmission::class, ::ImageTransmission),
-        RegisteredTransmission(SyncerTransmission::class, ::SyncerTransmission)
+        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission, NORMAL),
+        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission, NORMAL),  // Kept for compatibility, FINISHME: remove
+        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission, NORMAL),  // Kept for compatibility, FINISHME: remove
+        RegisteredTransmission(BuildQueueTransmission::class, ::BuildQueueTransmission, NORMAL),
+        RegisteredTransmission(TLSDataTransmission::class, ::TLSDataTransmission, INTERACTIVE),
+        RegisteredTransmission(TlsRequestTransmission::class, ::TlsRequestTransmission, INTERACTIVE),
+        RegisteredTransmission(MessageTransmission::class, ::MessageTransmission, INTERACTIVE),
+        RegisteredTransmission(SignatureTransmission::class, ::SignatureTransmission, INTERACTIVE),
+        RegisteredTransmission(CommandTransmission::class, ::CommandTransmission, INTERACTIVE),
+        RegisteredTransmission(ClientMessageTransmission::class, ::ClientMessageTransmission, INTERACTIVE),
+        RegisteredTransmission(ImageTransmission::class, ::ImageTransmission, BULK),
+        RegisteredTransmission(SyncerTransmission::class, ::SyncerTransmission, NORMAL),
+        RegisteredTransmission(CompactBuildQueueTransmission::class, ::CompactBuildQueueTransmission, NORMAL, PlanCodec.dictionary)
     )
 
-    private data class RegisteredTransmission<T : Transmission>(val type: KClass<T>, val constructor: (content: ByteArray, id: Long, senderID: Int) -> T)
+    /** The [dictionary] primes compression for transmissions of this type, both sides have to use the same one. */
+    private class RegisteredTransmission<T : Transmission>(val type: KClass<T>, val constructor: (content: ByteArray, id: Long, senderID: Int) -> T, val lane: Int, val dictionary: ByteArray? = null)
 
     private class Header {
         /** The total number of packets that make up this transmission. */
@@ -63,10 +75,9 @@ object Packets {
             this.transmissionType = transmissionType
         }
 
-        /** Deserializes a header.  Compatible with [toBytes]. */
-        constructor(array: ByteArray) {
-            if (array.size < HEADER_SIZE) throw IllegalArgumentException("Input array is not long enough to be a packet header!")
-            val buf = ByteBuffer.wrap(array)
+        /** Reads a header from the buffer, leaving it at the start of the content.  Compatible with [write]. */
+        constructor(buf: ByteBuffer) {
+            if (buf.remaining() < HEADER_SIZE) throw IllegalArgumentException("Input array is not long enough to be a packet header!")
             sequenceCount = buf.int
             sequenceNumber = buf.int
             expirationTime = buf.long.toInstant()
@@ -74,46 +85,9 @@ object Packets {
             transmissionType = buf.int
         }
 
-        /** Pulls the required bytes out of the given buffer. */
-        constructor(buf: ByteBuffer) : this(buf.bytes(HEADER_SIZE))
-
-        /** Encodes this header to bytes, compatible with the byte array and buffer constructors. */
-        fun toBytes(): ByteArray {
-            return sequenceCount.toBytes() + sequenceNumber.toBytes() + expirationTime.epochSecond.toBytes() + transmissionId.toBytes() + transmissionType.toBytes()
-        }
-    }
-
-    /** Represents a segment of a [Transmission].  Do not use directly. */
-    private data class Packet(val content: ByteArray, val sequenceCount: Int, val sequenceNumber: Int, val transmissionId: Long, val transmissionType: Int) {
-
-        fun bytes() = Header(
-            sequenceCount,
-            sequenceNumber,
-            Instant.now().plus(5, ChronoUnit.SECONDS), transmissionId, transmissionType
-        ).toBytes() + content
-
-        override fun equals(other: Any?): Boolean {
-            if (this === other) return true
-            if (javaClass != other?.javaClass) return false
-
-            other as Packet
-
-            if (!content.contentEquals(other.content)) return false
-            if (sequenceCount != other.sequenceCount) return false
-            if (sequenceNumber != other.sequenceNumber) return false
-            if (transmissionId != other.transmissionId) return false
-            if (transmissionType != other.transmissionType) return false
-
-            return true
-        }
-
-        override fun hashCode(): Int {
-            var result = content.contentHashCode()
-            result = 31 * result + sequenceCount
-            result = 31 * result + sequenceNumber
-            result = 31 * result + transmissionId.hashCode()
-            result = 31 * result + transmissionType
-            return result
+        /** Writes this header to the buffer, compatible with the buffer constructor. */
+        fun write(buf: ByteBuffer) {
+            buf.putInt(sequenceCount).putInt(sequenceNumber).putLong(expirationTime.epochSecond).putLong(transmissionId).putInt(transmissionType)
         }
     }
 
@@ -122,19 +96,78 @@ object Packets {
      * There should only be one of these per communication system to avoid exceeding the rate.
      */
     class CommunicationClient(val communicationSystem: CommunicationSystem) {
+        companion object {
+            /** Seconds the receiver keeps an unfinished transmission after its last packet. */
+            const val EXPIRY = 15L
+        }
+
+        /**
+         * The longest the ratelimit can slow sending down to, in extra ticks between packets.  While every lane is busy
+         * the lightest one only sends one in every (sum of the weights / its weight) packets, the gap between two of its
+         * packets has to stay well below [EXPIRY] or the receiver drops the transmission halfway.
+         */
+        val maxDelay get() = max(EXPIRY * 60 * .8f * laneWeights.min() / laneWeights.sum() - communicationSystem.RATE, 0f)
+
         val inUse get() = !lastSent.check(0, 60f) // 1s
 
         /** The time that the last packet was sent at. */
         private var lastSent = Interval()
-        /** A queue of packets waiting to be sent. */
-        private val outgoing = LinkedList<OutgoingTransmission>()
-        /** A list of incoming connections.  Each transmission ID is mapped to a nullable list of bytearray segments. */
+        /** Queues of transmissions waiting to be sent, one per lane.  Synchronized on itself. */
+        private val lanes = Array(laneNames.size) { LinkedList<OutgoingTransmission>() }
+        /** Virtual time of each lane, the waiting lane that is furthest behind sends next and moves ahead by 1 / its weight. */
+        private val passes = FloatArray(laneNames.size)
+        /** Virtual time of the last lane that sent, lanes that were idle start from here. */
+        private var clock = 0f
+        /** Extra ticks waited between packets while the ratelimit runs low. */
+        var delay = 0f
+            private set
+        val stats = Stats()
+        /** A list of incoming connections.  Each transmission ID is mapped to the packets received so far. */
         private val incoming = ConcurrentHashMap<Long, IncomingTransmission>()
         /** A list of listeners to be run when a transmission is received. */
         private val listeners = CopyOnWriteArrayList<(transmission: Transmission, senderId: Int) -> Unit>()
         val listenersLock = ReentrantLock()
 
-        data class IncomingTransmission(val segments: MutableList<ByteArray?>, var expirationTime: Instant)
+        class Stats {
+            /** Packets sent per lane. */
+            val packets = IntArray(laneNames.size)
+            /** Transmissions fully sent per lane. */
+            val transmissions = IntArray(laneNames.size)
+            /** Milliseconds from queueing to the first packet per lane, exponential moving average. */
+            val averageWait = FloatArray(laneNames.size)
+            /** Milliseconds from queueing to the last packet per lane, exponential moving average. */
+            val averageLatency = FloatArray(laneNames.size)
+
+            @Synchronized
+            fun started(lane: Int, wait: Long) {
+                averageWait[lane] += (wait - averageWait[lane]) * .1f
+            }
+
+            @Synchronized
+            fun finished(lane: Int, latency: Long) {
+                transmissions[lane]++
+                averageLatency[lane] += (latency - averageLatency[lane]) * .1f
+            }
+
+            @Synchronized
+            fun reset() {
+                packets.fill(0)
+                transmissions.fill(0)
+                averageWait.fill(0f)
+                averageLatency.fill(0f)
+            }
+        }
+
+        /**
+         * The packets of a transmission that is being received.  The packet arrays are kept as they are and only read
+         * when the last one arrives, the content of each starts after the header.
+         */
+        class IncomingTransmission(count: Int, var expirationTime: Instant) {
+            val segments = arrayOfNulls<ByteArray>(count)
+            /** Which segments have arrived, so that duplicates don't count towards [missing]. */
+            val received = BitSet(count)
+            var missing = count
+        }
 
         init {
             communicationSystem.addListener(::handle)
@@ -146,17 +179,14 @@ object Packets {
             }
         }
 
-        /** Updates sending.  Call once per tick. */
+        /**
+         * Updates sending.  Call once per tick.  Every transmission goes into the lane of its type and the lanes take
+         * turns in proportion to their weights, so a large image can't hold up signatures and commands for minutes while
+         * it still gets its share when everything is busy.  Packets are cut to the size allowed by the communication
+         * system that is active when the transmission starts sending.
+         */
         fun update() {
-            if (lastSent.check(0, communicationSystem.RATE)) {
-                val toSend = outgoing.peek() ?: return // Return if there's nothing to send
-
-                // Gets the next packet in this transmission, if there are no more packets move to the next transmission
-                val packet = toSend.packets.poll() ?: run { outgoing.remove(toSend); toSend.onFinish?.invoke(); return }
-
-                lastSent.reset(0, 0f) // Sending a packet, reset the timer fully
-                try { communicationSystem.send(packet.bytes()) } catch (e: Exception) { outgoing.remove(toSend); toSend.onError?.invoke() }
-            }
+            if (lastSent.check(0, communicationSystem.RATE + delay)) sendNext()
             for (inc in incoming) {
                 if (inc.value.expirationTime.isBefore(Instant.now())) {
                     Log.debug("Removing stale incoming message")
@@ -165,20 +195,84 @@ object Packets {
             }
         }
 
-        /** Handles an incoming packet. */
+        private fun sendNext() {
+            val toSend = synchronized(lanes) { next() } ?: return // Return if there's nothing to send
+
+            val first = toSend.sent == 0
+            val packet = toSend.next(communicationSystem.MAX_LENGTH - Header.HEADER_SIZE)
+            if (first) stats.started(toSend.lane, Time.timeSinceMillis(toSend.queued))
+            synchronized(stats) { stats.packets[toSend.lane]++ }
+            adapt()
+
+            lastSent.reset(0, 0f) // Sending a packet, reset the timer fully
+            try {
+                communicationSystem.send(packet)
+            } catch (e: Exception) {
+                synchronized(lanes) { lanes[toSend.lane].remove(toSend) }
+                toSend.onError?.invoke()
+                return
+            }
+
+            if (toSend.done) { // That was the last packet, move on to the next transmission
+                synchronized(lanes) { lanes[toSend.lane].remove(toSend) }
+                stats.finished(toSend.lane, Time.timeSinceMillis(toSend.queued))
+                toSend.onFinish?.invoke()
+            }
+        }
+
+        /** Picks the transmission to send the next packet of, call while holding [lanes]. */
+        private fun next(): OutgoingTransmission? {
+            var best = -1
+            for (lane in lanes.indices) {
+                if (lanes[lane].isNotEmpty() && (best == -1 || passes[lane] < passes[best])) best = lane
+            }
+            if (best == -1) return null
+            clock = passes[best]
+            passes[best] += 1f / laneWeights[best]
+            if (clock > 1000f) { // Keep the numbers small so they stay precise
+                for (lane in passes.indices) passes[lane] -= clock
+                clock = 0f
+            }
+            return lanes[best].peek()
+        }
+
+        /**
+         * Backs off while sending uses up the config ratelimit faster than it comes back: the delay doubles whenever a
+         * packet is sent with less than a quarter of the ratelimit left and shrinks again while there is enough.
+         */
+        private fun adapt() {
+            val low = communicationSystem.ratelimited && Vars.net?.client() == true && ClientVars.ratelimitRemaining <= ClientVars.ratelimitMax / 4
+            delay = if (low) (delay * 2).coerceAtLeast(max(communicationSystem.RATE, 1f)).coerceAtMost(maxDelay) else max(delay - communicationSystem.RATE / 2, 0f)
+        }
+
+        /** Queued transmissions and packets, throughput and latency of every lane. */
+        fun summary() = buildString {
+            val segmentSize = communicationSystem.MAX_LENGTH - Header.HEADER_SIZE
+            append("[accent]Outgoing transmissions, ${Strings.fixed(delay / 60f, 1)}s extra delay")
+            synchronized(lanes) {
+                synchronized(stats) {
+                    for (lane in lanes.indices) {
+                        append("\n${laneNames[lane]}: ${lanes[lane].size} queued (${lanes[lane].sumOf { it.remaining(segmentSize) }} packets), ")
+                        append("${stats.transmissions[lane]} sent in ${stats.packets[lane]} packets, ")
+                        append("average wait ${Strings.fixed(stats.averageWait[lane], 0)}ms, average latency ${Strings.fixed(stats.averageLatency[lane], 0)}ms")
+                    }
+                }
+            }
+        }
+
+        /** Handles an incoming packet.  The array is kept until the transmission is complete and must not be changed. */
         private fun handle(input: ByteArray, sender: Int) {
 //            if (sender == communicationSystem.id) return
             val buf = input.buffer()
 
             try {
                 val header = Header(buf)
-                val content = buf.remainingBytes()
 
-                if (header.sequenceNumber >= header.sequenceCount)
+                if (header.sequenceNumber >= header.sequenceCount || header.sequenceNumber < 0)
                     throw IndexOutOfBoundsException("Packet sequence number ${header.sequenceNumber} " +
-                            "is greater than or equal to sequence count ${header.sequenceCount}!")
+                            "is out of range for sequence count ${header.sequenceCount}!")
 
-                if (header.transmissionType >= registeredTransmissionTypes.size)
+                if (header.transmissionType >= registeredTransmissionTypes.size || header.transmissionType < 0)
                     throw IndexOutOfBoundsException("Transmission type ${header.transmissionType} not found!")
 
                 if (header.sequenceCount > 500) { // Too many packets
@@ -193,29 +287,73 @@ object Packets {
 
                 val entry = incoming[header.transmissionId] ?: run {
                     if (incoming.size > 50) { Log.debug("Too many incoming transmissions"); return@run null }  // too many incoming connections
-                    incoming[header.transmissionId] = IncomingTransmission(MutableList(header.sequenceCount) { null }, Instant.now().plusSeconds(15))  // Create new incoming connection entry
+                    incoming.putIfAbsent(header.transmissionId, IncomingTransmission(header.sequenceCount, Instant.now().plusSeconds(EXPIRY)))  // Create new incoming connection entry
                     return@run incoming[header.transmissionId]
                 } ?: return
 
-                entry.segments[header.sequenceNumber] = content
-                entry.expirationTime = Instant.now().plusSeconds(15)
+                val complete = synchronized(entry) {
+                    if (entry.segments.size != header.sequenceCount) throw IllegalArgumentException("Packet sequence count ${header.sequenceCount} doesn't match its transmission!")
+                    entry.segments[header.sequenceNumber] = input
+                    entry.expirationTime = Instant.now().plusSeconds(EXPIRY)
+                    if (!entry.received[header.sequenceNumber]) {
+                        entry.received.set(header.sequenceNumber)
+                        entry.missing--
+                    }
+                    entry.missing == 0 && incoming.remove(header.transmissionId, entry) // Only one thread gets to finish it
+                }
 
-                if (!entry.segments.contains(null)) {
-                    val array = entry.segments.reduceRight { a, b -> a!! + b!! }!!  // Collapse the list of packet contents to the full byte array
-                    val inflated = array.inflate()  // Decompress the transmission
+                if (complete) {
+                    // Decompress the segments one after another into a single array
+                    val inflation = Compression.Inflation(entry.segments.sumOf { it!!.size - Header.HEADER_SIZE } * 2, registeredTransmissionTypes[header.transmissionType].dictionary)
+                    for (segment in entry.segments) inflation.add(segment!!, Header.HEADER_SIZE, segment.size - Header.HEADER_SIZE)
+                    val inflated = inflation.finish()
                     val transmission = registeredTransmissionTypes[header.transmissionType].constructor(inflated, header.transmissionId, sender)  // Deserialize the transmission
 
-                    listenersLock.lock()
-                    for (listener in listeners) {
-                        listener(transmission, sender)
+                    listenersLock.withLock {
+                        for (listener in listeners) {
+                            listener(transmission, sender)
+                        }
                     }
-                    incoming.remove(header.transmissionId)
-                    listenersLock.unlock()
                 }
             } catch (e: Exception) { Log.err(e) }
         }
 
-        private data class OutgoingTransmission(val packets: Queue<Packet>, val onFinish: (() -> Unit)?, val onError: (() -> Unit)?)
+        /** The compressed transmission, which is cut into packets as they are sent. */
+        private class OutgoingTransmission(val data: ByteArray, val transmissionId: Long, val transmissionType: Int, val lane: Int, val onFinish: (() -> Unit)?, val onError: (() -> Unit)?) {
+            val queued = Time.millis()
+            /** Bytes of content per packet, fixed once the first packet is sent. */
+            private var segmentSize = 0
+            /** The total number of packets, an empty transmission still sends one. */
+            private var count = 0
+            /** The number of packets sent so far. */
+            var sent = 0
+            val done get() = sent != 0 && sent == count
+
+            private fun count(segmentSize: Int) = max(1, (data.size + segmentSize - 1) / segmentSize)
+
+            /** Packets left to send if they were cut to [segmentSize] bytes. */
+            fun remaining(segmentSize: Int) = if (sent == 0) count(segmentSize) else count - sent
+
+            /** Returns the next packet, the first one fixes the packet size to [segmentSize]. */
+            fun next(segmentSize: Int): ByteArray {
+                if (sent == 0) {
+                    this.segmentSize = segmentSize
+                    count = count(segmentSize)
+                }
+                return packet(sent++)
+            }
+
+            /** Builds the header and content of the packet with the given index into one array. */
+            private fun packet(index: Int): ByteArray {
+                val offset = index * segmentSize
+                val length = min(segmentSize, data.size - offset)
+                val out = ByteArray(Header.HEADER_SIZE + length)
+                val buf = out.buffer()
+                Header(count, index, Instant.now().plus(5, ChronoUnit.SECONDS), transmissionId, transmissionType).write(buf)
+                buf.put(data, offset, length)
+                return out
+            }
+        }
 
         /**
          * Splits the transmission into packets and queues them for sending.
@@ -231,17 +369,14 @@ object Packets {
             if (type == -1)
                 throw IllegalArgumentException("Transmission type \"${transmission::class.simpleName}\" is not enrolled!")
 
-            val usableBytesPerPacket = communicationSystem.MAX_LENGTH - Header.HEADER_SIZE
-
-            // Compress the transmission and chunk it so it
-            val batches = transmission.serialize().compress().toList().chunked(usableBytesPerPacket) { it.toByteArray() }
-
-            val packets = LinkedList<Packet>()
-            for ((index, content) in batches.withIndex()) {
-                packets.add(Packet(content, batches.size, index, transmission.id, type))
+            // Compress the transmission, it is cut into packets as they are sent
+            val registered = registeredTransmissionTypes[type]
+            val lane = registered.lane
+            val outgoing = OutgoingTransmission(Compression.compress(transmission.serialize(), registered.dictionary), transmission.id, type, lane, onFinish, onError)
+            synchronized(lanes) {
+                if (lanes[lane].isEmpty()) passes[lane] = max(passes[lane], clock) // An idle lane doesn't get to catch up on the turns it skipped
+                lanes[lane].add(outgoing)
             }
-
-            outgoing.add(OutgoingTransmission(packets, onFinish, onError))
         }
 
         fun removeListener(listener: (Transmission, Int) -> Unit) {
@@ -0,0 +1,187 @@
+package mindustry.client.communication
+
+import arc.struct.*
+import arc.util.io.*
+import mindustry.Vars.*
+import mindustry.entities.units.*
+import mindustry.io.*
+import mindustry.world.*
+import java.io.*
+import java.nio.*
+
+/**
+ * Compact encoding of build plans for the slow communication systems.  Plans from schematics mostly repeat the plan
+ * before them, so every plan is a byte of flags saying what stays the same followed by only what changed: coordinates
+ * as varint deltas from the previous plan, the block id as a varint and the config as an index into a table of the
+ * configs seen so far.  [dictionary] primes the compression of the result with runs of such plans.
+ */
+object PlanCodec {
+    /** Written where [TypeIO.writePlans] writes the plan count, which is never below -1, to tell the encodings apart. */
+    const val MARKER = -2
+
+    private const val BREAKING = 1
+    private const val SAME_BLOCK = 2
+    private const val SAME_ROTATION = 4
+    private const val SAME_CONFIG = 8 // Same config as the last plan with one
+    private const val NO_CONFIG = 16
+
+    /** Plans continuing rows and columns of the same block in every direction, the ends come out cheapest. */
+    val dictionary = ByteArrayOutputStream().run {
+        val deltas = intArrayOf(3, 0, 0, 3, 2, 0, 0, 2, 1, 0, 0, 1, 0, 1, 1, 0, 0, 2, 2, 0) // Zigzag encoded dx, dy
+        for (flags in intArrayOf(BREAKING, SAME_BLOCK or SAME_ROTATION or NO_CONFIG, SAME_BLOCK or SAME_ROTATION or SAME_CONFIG)) {
+            for (i in deltas.indices step 2) {
+                repeat(6) {
+                    write(flags)
+                    write(deltas[i])
+                    write(deltas[i + 1])
+                }
+            }
+        }
+        toByteArray()
+    }
+
+    /** Whether [bytes] start with [MARKER] rather than the count of [TypeIO.writePlans]. */
+    fun isEncoded(bytes: ByteArray) = bytes.size >= 2 && ByteBuffer.wrap(bytes).short.toInt() == MARKER
+
+    fun write(out: DataOutputStream, plans: Array<BuildPlan>) {
+        out.writeShort(MARKER)
+        varint(out, plans.size)
+
+        val configs = ObjectIntMap<ByteBuffer>() // Serialized config -> index in the table
+        val buffer = ByteArrayOutputStream()
+        val writes = Writes(DataOutputStream(buffer))
+        var x = 0
+        var y = 0
+        var block = -1
+        var rotation = 0
+        var config: ByteBuffer? = null
+        for (plan in plans) {
+            var flags = 0
+            var key: ByteBuffer? = null
+            if (plan.breaking) {
+                flags = BREAKING
+            } else {
+                if (plan.block.id.toInt() == block) flags = flags or SAME_BLOCK
+                if (plan.rotation == rotation) flags = flags or SAME_ROTATION
+                if (plan.config == null) {
+                    flags = flags or NO_CONFIG
+                } else {
+                    buffer.reset()
+                    TypeIO.writeObject(writes, plan.config)
+                    key = ByteBuffer.wrap(buffer.toByteArray()) // Compares by content
+                    if (key == config) flags = flags or SAME_CONFIG
+                }
+            }
+
+            out.writeByte(flags)
+            varint(out, zigzag(plan.x - x))
+            varint(out, zigzag(plan.y - y))
+            x = plan.x
+            y = plan.y
+            if (plan.breaking) continue
+
+            if ((flags and SAME_BLOCK) == 0) {
+                block = plan.block.id.toInt()
+                varint(out, block)
+            }
+            if ((flags and SAME_ROTATION) == 0) {
+                rotation = plan.rotation
+                out.writeByte(rotation)
+            }
+            if (key != null && (flags and SAME_CONFIG) == 0) {
+                val index = configs.get(key, -1)
+                if (index != -1) {
+                    varint(out, index)
+                } else { // Index of the next entry, the config follows
+                    varint(out, configs.size)
+                    configs.put(key, configs.size)
+                    varint(out, key.remaining())
+                    out.write(key.array())
+                }
+            }
+            if (key != null) config = key
+        }
+    }
+
+    /**
+     * Reads plans written by [write], plans on tiles that don't exist or with unknown blocks are left out.  The input
+     * comes from other players, so sizes are checked against what is left of it before anything is allocated.
+     */
+    @Throws(IOException::class)
+    fun read(inp: DataInputStream): Array<BuildPlan> {
+        if (inp.readShort().toInt() != MARKER) throw IllegalArgumentException("Not encoded plans!")
+        val count = varint(inp)
+        if (count < 0 || count > inp.available()) throw IOException("Invalid plan count $count!") // Every plan takes at least a byte
+
+        val configs = Seq<ByteArray>()
+        val out = Seq<BuildPlan>(count)
+        var x = 0
+        var y = 0
+        var block: Block? = null
+        var rotation = 0
+        var config: ByteArray? = null
+        repeat(count) {
+            val flags = inp.readUnsignedByte()
+            x += unzigzag(varint(inp))
+            y += unzigzag(varint(inp))
+            if ((flags and BREAKING) != 0) {
+                if (world.tile(x, y) != null) out.add(BuildPlan(x, y))
+                return@repeat
+            }
+
+            if ((flags and SAME_BLOCK) == 0) block = content.block(varint(inp))
+            if ((flags and SAME_ROTATION) == 0) rotation = inp.readByte().toInt()
+            if ((flags and NO_CONFIG) == 0 && (flags and SAME_CONFIG) == 0) {
+                val index = varint(inp)
+                if (index < 0 || index > configs.size) throw IOException("Invalid config index $index!")
+                if (index == configs.size) {
+                    val length = varint(inp)
+                    if (length < 0 || length > inp.available()) throw IOException("Invalid config length $length!")
+                    val bytes = ByteArray(length)
+                    inp.readFully(bytes)
+                    configs.add(bytes)
+                }
+                config = configs[index]
+            }
+
+            if (world.tile(x, y) == null || block == null) return@repeat
+            // Every plan gets its own config object as some of them can be modified
+            val value = if ((flags and NO_CONFIG) != 0) null else TypeIO.readObject(Reads.get(DataInputStream(config!!.inputStream())))
+            out.add(BuildPlan(x, y, rotation, block, value))
+        }
+        return out.toArray(BuildPlan::class.java)
+    }
+
+    /** Reads [write]'s encoding or the one of [TypeIO.writePlans]. */
+    fun readAny(bytes: ByteArray): Array<BuildPlan> {
+        val inp = DataInputStream(bytes.inputStream())
+        if (isEncoded(bytes)) return read(inp)
+        val plans = TypeIO.readPlans(Reads.get(inp)) ?: throw IllegalArgumentException("Invalid request array!")
+        return plans.filterNotNull().toTypedArray()
+    }
+
+    private fun zigzag(value: Int) = (value shl 1) xor (value shr 31)
+
+    private fun unzigzag(value: Int) = (value ushr 1) xor -(value and 1)
+
+    private fun varint(out: DataOutputStream, value: Int) {
+        var rest = value
+        while ((rest and 0x7f.inv()) != 0) {
+            out.writeByte((rest and 0x7f) or 0x80)
+            rest = rest ushr 7
+        }
+        out.writeByte(rest)
+    }
+
+    private fun varint(inp: DataInputStream): Int {
+        var value = 0
+        var shift = 0
+        while (shift < 35) {
+            val byte = inp.readUnsignedByte()
+            value = value or ((byte and 0x7f) shl shift)
+            if ((byte and 0x80) == 0) return value
+            shift += 7
+        }
+        throw IOException("Malformed varint!")
+    }
+}
@@ -11,6 +11,7 @@ class SwitchableCommunicationSystem(val systems: List<CommunicationSystem>) : Co
     override val id get() = activeCommunicationSystem.id
     override val MAX_LENGTH get() = activeCommunicationSystem.MAX_LENGTH
     override val RATE get() = activeCommunicationSystem.RATE
+    override val ratelimited get() = activeCommunicationSystem.ratelimited
 
     override val secure: Boolean
         get() = activeCommunicationSystem.secure
@@ -0,0 +1,187 @@
+package mindustry.client.communication.syncing
+
+import kotlin.math.*
+import kotlin.random.*
+
+/**
+ * A list that keeps an order sensitive hash of its items up to date: the sum of itemHash(item i) * BASE^i in wrapping
+ * longs.  The item hashes are kept in an implicit treap whose nodes also store the hash of their subtree, so inserting
+ * or removing anywhere only updates O(log n) nodes and the hash of any prefix or suffix can be read just as quickly.
+ * [itemHash] has to give the same value for equal items on every client, which [Object.hashCode] often doesn't.
+ */
+class HashedList<T>(private val itemHash: (T) -> Long) : AbstractMutableList<T>() {
+    companion object {
+        private const val BASE = -0x61c8864680b583ebL // Odd, so it has an inverse
+        private val INVERSE = run { // Newton's method, every step doubles the correct low bits
+            var x = BASE
+            repeat(6) { x *= 2 - BASE * x }
+            x
+        }
+
+        /** 64 bit FNV-1a of the bytes, for turning serialized items into item hashes. */
+        fun hash(bytes: ByteArray): Long {
+            var hash = -0x340d631b7bdddcdbL
+            for (byte in bytes) hash = (hash xor (byte.toLong() and 0xffL)) * 0x100000001b3L
+            return hash
+        }
+    }
+
+    private val items = ArrayList<T>()
+    private var left = IntArray(16)
+    private var right = IntArray(16)
+    private var sizes = IntArray(16)
+    private var priorities = IntArray(16)
+    private var values = LongArray(16) // Hash of the node's item
+    private var hashes = LongArray(16) // Hash of the node's subtree
+    private var free = IntArray(16)
+    private var freeCount = 0
+    private var nodes = 1 // Node 0 is the empty tree
+    private var root = 0
+    private var powers = longArrayOf(1)
+    private var inverses = longArrayOf(1)
+    private var splitLeft = 0
+    private var splitRight = 0
+
+    override val size get() = items.size
+
+    /** Hash of the whole list. */
+    val hash get() = hashes[root]
+
+    override fun get(index: Int) = items[index]
+
+    override fun add(index: Int, element: T) {
+        items.add(index, element)
+        val node = allocate(itemHash(element))
+        split(root, index)
+        val after = splitRight
+        root = merge(merge(splitLeft, node), after)
+    }
+
+    override fun removeAt(index: Int): T {
+        val item = items.removeAt(index)
+        split(root, index)
+        val before = splitLeft
+        split(splitRight, 1)
+        release(splitLeft)
+        root = merge(before, splitRight)
+        return item
+    }
+
+    override fun set(index: Int, element: T): T {
+        val old = removeAt(index)
+        add(index, element)
+        return old
+    }
+
+    override fun clear() {
+        items.clear()
+        root = 0
+        nodes = 1
+        freeCount = 0
+    }
+
+    /** Hash of the first [count] items, as if they were the whole list. */
+    fun prefix(count: Int): Long {
+        var node = root
+        var remaining = count
+        var offset = 0
+        var hash = 0L
+        while (node != 0 && remaining > 0) {
+            val leftSize = sizes[left[node]]
+            if (remaining <= leftSize) {
+                node = left[node]
+            } else { // Take the left subtree and this node whole, continue on the right
+                hash += (hashes[left[node]] + values[node] * power(leftSize)) * power(offset)
+                offset += leftSize + 1
+                remaining -= leftSize + 1
+                node = right[node]
+            }
+        }
+        return hash
+    }
+
+    /** Hash of the last [count] items, as if they were the whole list. */
+    fun suffix(count: Int) = (hash - prefix(size - count)) * inverse(size - count)
+
+    private fun power(k: Int): Long {
+        if (k >= powers.size) powers = grow(powers, k, BASE)
+        return powers[k]
+    }
+
+    private fun inverse(k: Int): Long {
+        if (k >= inverses.size) inverses = grow(inverses, k, INVERSE)
+        return inverses[k]
+    }
+
+    private fun grow(array: LongArray, k: Int, base: Long): LongArray {
+        val out = array.copyOf(max(k + 1, array.size * 2))
+        for (i in array.size until out.size) out[i] = out[i - 1] * base
+        return out
+    }
+
+    private fun allocate(value: Long): Int {
+        val node = if (freeCount > 0) free[--freeCount] else {
+            if (nodes == left.size) {
+                val capacity = nodes * 2
+                left = left.copyOf(capacity)
+                right = right.copyOf(capacity)
+                sizes = sizes.copyOf(capacity)
+                priorities = priorities.copyOf(capacity)
+                values = values.copyOf(capacity)
+                hashes = hashes.copyOf(capacity)
+            }
+            nodes++
+        }
+        left[node] = 0
+        right[node] = 0
+        sizes[node] = 1
+        priorities[node] = Random.nextInt()
+        values[node] = value
+        hashes[node] = value
+        return node
+    }
+
+    private fun release(node: Int) {
+        if (freeCount == free.size) free = free.copyOf(free.size * 2)
+        free[freeCount++] = node
+    }
+
+    private fun update(node: Int) {
+        val leftSize = sizes[left[node]]
+        sizes[node] = leftSize + 1 + sizes[right[node]]
+        hashes[node] = hashes[left[node]] + values[node] * power(leftSize) + hashes[right[node]] * power(leftSize + 1)
+    }
+
+    /** Splits the tree at [node] into its first [count] items and the rest, into [splitLeft] and [splitRight]. */
+    private fun split(node: Int, count: Int) {
+        if (node == 0) {
+            splitLeft = 0
+            splitRight = 0
+        } else if (sizes[left[node]] >= count) {
+            split(left[node], count)
+            left[node] = splitRight
+            update(node)
+            splitRight = node
+        } else {
+            split(right[node], count - sizes[left[node]] - 1)
+            right[node] = splitLeft
+            update(node)
+            splitLeft = node
+        }
+    }
+
+    /** Joins two trees, every item of [a] coming before the ones of [b]. */
+    private fun merge(a: Int, b: Int): Int {
+        if (a == 0) return b
+        if (b == 0) return a
+        return if (priorities[a] > priorities[b]) {
+            right[a] = merge(right[a], b)
+            update(a)
+            a
+        } else {
+            left[b] = merge(a, left[b])
+            update(b)
+            b
+        }
+    }
+}
@@ -1,20 +1,40 @@
 package mindustry.client.communication.syncing
 
+import arc.util.*
 import mindustry.client.communication.*
 import mindustry.client.utils.*
 import java.io.*
-import java.util.zip.*
 import kotlin.random.*
 
 /**
  * Keeps [list] synced between two instances.  Use [added] and [removed] to add or remove items.  The two instances must
- * be instantiated with the same [id] for it to work!
+ * be instantiated with the same [id] for it to work!  Every edit carries the order sensitive hash of the whole list
+ * kept by [HashedList], which costs O(log n) per edit.  When the hashes stop matching the receiver sends the hashes of
+ * evenly spaced prefixes and suffixes of its list and the other side only resends what lies between the longest ones
+ * it has as well.
  */
 @Suppress("UNCHECKED_CAST")
 class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private val deserializer: (DataInputStream) -> T?, private val comms: Packets.CommunicationClient, private val id: Long = Random.nextLong(), private val mode: Mode) {
-    private val internalList = mutableListOf<T>()
+    companion object {
+        /** Number of prefix and suffix hashes sent when desynced, the repair resends about 1 / [POINTS] of the list at worst. */
+        const val POINTS = 32
+        /** Milliseconds without a repair after which the request is sent again, either may have been lost. */
+        const val RETRY = 10_000L
+    }
+
+    private val buffer = ByteArrayOutputStream()
+    private val data = DataOutputStream(buffer)
+    private val internalList = HashedList<T> { item -> // Hash the serialized item, the same on every client unlike hashCode
+        buffer.reset()
+        serializer(item, data)
+        data.flush()
+        HashedList.hash(buffer.toByteArray())
+    }
     val list: List<T> = internalList  // outside the class, appears as an immutable list
     var isDesynced = false
+    private var requested = 0L // When the last request was sent
+    /** Milliseconds without a repair after which the request is sent again, [RETRY] unless changed. */
+    var retry = RETRY
 
     private val queued = mutableListOf<SyncerT<T>>()
 
@@ -25,21 +45,21 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
     fun added(items: List<Pair<T, Int>>) {
         if (mode == Mode.READ_ONLY) throw UnsupportedOperationException()
         items.forEach { internalList.add(it.second, it.first) }
-        val hash = crc(internalList)
-
-        if (queued.lastOrNull() is SyncerT.AddT) {
-            val t = queued.last() as SyncerT.AddT<T>
-            t.newObjects.addAll(items)
-            t.hash = hash
+        val hash = internalList.hash
+
+        val last = queued.lastOrNull()
+        if (last is SyncerT.AddT && !last.clear) {
+            last.newObjects.addAll(items)
+            last.hash = hash
+        } else {
+            queued.add(SyncerT.AddT(items.toMutableList(), false, hash))
         }
-
-        queued.add(SyncerT.AddT(items.toMutableList(), false, hash))
     }
 
     fun clear() {
         if (mode == Mode.READ_ONLY) throw UnsupportedOperationException()
         internalList.clear()
-        val hash = crc(internalList)
+        val hash = internalList.hash
 
         queued.add(SyncerT.AddT(mutableListOf(), true, hash))
     }
@@ -47,19 +67,22 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
     fun removed(indices: List<Int>) {
         if (mode == Mode.READ_ONLY) throw UnsupportedOperationException()
         indices.forEach { internalList.removeAt(it) }
-        val hash = crc(internalList)
-
-        if (queued.lastOrNull() is SyncerT.RemoveT) {
-            val t = queued.last() as SyncerT.RemoveT<T>
-            t.remove.addAll(indices)
-            t.hash = hash
+        val hash = internalList.hash
+
+        val last = queued.lastOrNull()
+        if (last is SyncerT.RemoveT) {
+            last.remove.addAll(indices)
+            last.hash = hash
+        } else {
+            queued.add(SyncerT.RemoveT(indices.toMutableList(), hash))
         }
-
-        queued.add(SyncerT.RemoveT(indices.toMutableList(), hash))
     }
 
     fun update() {
-        if (isDesynced) queued.removeAll { it !is SyncerT.RequestT<T> }
+        if (isDesynced) {
+            queued.removeAll { it is SyncerT.AddT || it is SyncerT.RemoveT }
+            if (Time.timeSinceMillis(requested) > retry) ask()
+        }
         for (item in queued) {
             comms.send(SyncerTransmission(id, item, serializer as (Any?, DataOutputStream) -> Unit))
         }
@@ -74,33 +97,59 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
             val syncT = transmission.deserialize(serializer, deserializer) ?: return@addListener
 
             if (syncT is SyncerT.RequestT) {
-                queued.add(SyncerT.AddT(internalList.zip(internalList.indices).toMutableList(), true, crc(internalList)))
+                queued.add(repair(syncT))
                 return@addListener
             }
             if (mode == Mode.WRITE_ONLY) return@addListener
 
-            if (isDesynced && (syncT as? SyncerT.AddT)?.clear == true) {
-                isDesynced = false
+            // Edits made before the repair was sent are part of it, the list has to stay as it was when asking
+            val repairs = syncT is SyncerT.ReplaceT || (syncT as? SyncerT.AddT)?.clear == true
+            if (isDesynced && !repairs) {
+                if (Time.timeSinceMillis(requested) > retry) ask() // Edits keep coming but the repair doesn't
+                return@addListener
             }
 
             syncT.apply(internalList)
 
-            val hash = crc(internalList)
-            if (hash != syncT.hash) {
-                isDesynced = true
-                queued.add(SyncerT.RequestT())
-            }
+            isDesynced = internalList.hash != syncT.hash
+            if (isDesynced) ask()
         }
     }
 
-    private val crc = CRC32()
+    private fun ask() {
+        queued.add(request())
+        requested = Time.millis()
+    }
+
+    /** Where the [index]th of the [POINTS] prefixes or suffixes of a list of [size] items ends. */
+    private fun point(size: Int, index: Int) = (size.toLong() * (index + 1) / POINTS).toInt()
+
+    /** Describes this list to the other side so that it can find out what differs. */
+    private fun request(): SyncerT.RequestT<T> {
+        val size = internalList.size
+        return SyncerT.RequestT(size, LongArray(POINTS) { internalList.prefix(point(size, it)) }, LongArray(POINTS) { internalList.suffix(point(size, it)) })
+    }
 
-    private fun crc(items: List<T>): Int {
-        crc.reset()
-        items.forEach {
-            crc.update(it.hashCode())
+    /** Replaces everything between the longest prefix and suffix both lists share. */
+    private fun repair(request: SyncerT.RequestT<T>): SyncerT.ReplaceT<T> {
+        val size = internalList.size
+        var prefix = 0
+        for (i in POINTS - 1 downTo 0) {
+            val k = point(request.size, i)
+            if (k <= size && internalList.prefix(k) == request.prefixes[i]) {
+                prefix = k
+                break
+            }
+        }
+        var suffix = 0
+        for (i in POINTS - 1 downTo 0) {
+            val k = point(request.size, i)
+            if (k <= size - prefix && k <= request.size - prefix && internalList.suffix(k) == request.suffixes[i]) {
+                suffix = k
+                break
+            }
         }
-        return crc.value.toInt()
+        return SyncerT.ReplaceT(prefix, request.size - prefix - suffix, internalList.subList(prefix, size - suffix).toMutableList(), internalList.hash)
     }
 
     class SyncerTransmission : Transmission {
@@ -127,7 +176,7 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
         fun <T> deserialize(@Suppress("UNUSED_PARAMETER") serializer: (T, DataOutputStream) -> Unit, deserializer: (DataInputStream) -> T?): SyncerT<T>? {
             val inp = DataInputStream(content.inputStream())
             val typeByte = inp.readByte().toInt()
-            val hash = inp.readInt()
+            val hash = inp.readLong()
 
             return when (typeByte) {
                 0 -> {
@@ -150,21 +199,36 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
 
                     SyncerT.RemoveT(lst, hash)
                 }
-                2 -> SyncerT.RequestT()
+                2 -> {
+                    val size = inp.readInt()
+                    SyncerT.RequestT(size, LongArray(POINTS) { inp.readLong() }, LongArray(POINTS) { inp.readLong() })
+                }
+                3 -> {
+                    val from = inp.readInt()
+                    val removed = inp.readInt()
+                    val num = inp.readInt()
+                    val lst = mutableListOf<T>()
+
+                    repeat(num) {
+                        lst.add(deserializer(inp) ?: return null)
+                    }
+
+                    SyncerT.ReplaceT(from, removed, lst, hash)
+                }
                 else -> null
             }
         }
     }
 
     interface SyncerT<T> {
-        val hash: Int
+        val hash: Long
         val typeByte: Byte
 
         fun apply(list: MutableList<T>)
 
         fun serialize(serializer: (T, DataOutputStream) -> Unit): ByteArray
 
-        data class AddT<T>(val newObjects: MutableList<Pair<T, Int>>, val clear: Boolean, override var hash: Int) : SyncerT<T> {
+        data class AddT<T>(val newObjects: MutableList<Pair<T, Int>>, val clear: Boolean, override var hash: Long) : SyncerT<T> {
             override val typeByte = 0.toByte()
 
             override fun apply(list: MutableList<T>) {
@@ -189,7 +253,7 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
             }
         }
 
-        data class RemoveT<T>(val remove: MutableList<Int>, override var hash: Int) : SyncerT<T> {
+        data class RemoveT<T>(val remove: MutableList<Int>, override var hash: Long) : SyncerT<T> {
             override val typeByte = 1.toByte()
 
             override fun apply(list: MutableList<T>) {
@@ -211,8 +275,9 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
             }
         }
 
-        class RequestT<T> : SyncerT<T> {
-            override val hash = -1
+        /** Asks for a repair, with the hashes of [POINTS] evenly spaced prefixes and suffixes of a list of [size] items. */
+        class RequestT<T>(val size: Int, val prefixes: LongArray, val suffixes: LongArray) : SyncerT<T> {
+            override val hash = -1L
             override val typeByte = 2.toByte()
 
             override fun apply(list: MutableList<T>) {
@@ -220,7 +285,37 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
             }
 
             override fun serialize(serializer: (T, DataOutputStream) -> Unit): ByteArray {
-                return byteArrayOf()
+                val out = ByteArrayOutputStream()
+                val data = DataOutputStream(out)
+
+                data.writeInt(size)
+                for (prefix in prefixes) data.writeLong(prefix)
+                for (suffix in suffixes) data.writeLong(suffix)
+                data.flush()
+                return out.toByteArray()
+            }
+        }
+
+        /** Replaces [removed] items starting at [from] with [newObjects], the answer to a [RequestT]. */
+        class ReplaceT<T>(val from: Int, val removed: Int, val newObjects: MutableList<T>, override val hash: Long) : SyncerT<T> {
+            override val typeByte = 3.toByte()
+
+            override fun apply(list: MutableList<T>) {
+                if (from < 0 || removed < 0 || from + removed > list.size) return // Doesn't fit, the hash won't match and it will be asked again
+                repeat(removed) { list.removeAt(from) }
+                list.addAll(from, newObjects)
+            }
+
+            override fun serialize(serializer: (T, DataOutputStream) -> Unit): ByteArray {
+                val out = ByteArrayOutputStream()
+                val data = DataOutputStream(out)
+
+                data.writeInt(from)
+                data.writeInt(removed)
+                data.writeInt(newObjects.size)
+                for (item in newObjects) serializer(item, data)
+                data.flush()
+                return out.toByteArray()
             }
         }
     }
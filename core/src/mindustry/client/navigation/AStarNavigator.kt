@@ -1,174 +1,166 @@
 package mindustry.client.navigation
 
 import arc.math.geom.*
-import arc.struct.*
 import arc.util.*
 import arc.util.pooling.*
 import mindustry.Vars.*
 import mindustry.client.navigation.waypoints.*
 import mindustry.core.*
+import mindustry.entities.EntityCollisions.*
 import kotlin.math.*
 
 // Taken from http://www.codebytes.in/2015/02/a-shortest-path-finding-algorithm.html
 // and modified
 
+/**
+ * A* over the tile grid kept in flat primitive arrays indexed by `x + y * width`. Every search bumps a generation
+ * counter and a cell only counts as visited if its stamp matches the current generation, so nothing is reset between
+ * searches and a query only costs as much as the cells it touches. Turret penalties are read straight from the
+ * persistent [DangerField]. The arrays belong to a per thread [Search] so that several workers can plan at once.
+ */
 object AStarNavigator : Navigator() {
+    private const val BLOCKED = -2
     private val pool = Pools.get(PositionWaypoint::class.java) { PositionWaypoint() }
-    private var grid: Array<Cell> = emptyArray()
-    private var gridSize = Point2()
-    private var open = BinaryHeap<Cell>(65_536, false)
-    private var startX = 0
-    private var startY = 0
-    private var endX = 0
-    private var endY = 0
-    private var tileWidth = 0
-    private var tileHeight = 0
-    private val points = mutableListOf<PositionWaypoint>()
-
-    private inline fun d8(cons: (x: Int, y: Int) -> Unit) {
-        cons(1, 0)
-        cons(1, 1)
-        cons(0, 1)
-        cons(-1, 1)
-        cons(-1, 0)
-        cons(-1, -1)
-        cons(0, -1)
-        cons(1, -1)
-    }
+    private val dx = intArrayOf(1, 1, 0, -1, -1, -1, 0, 1)
+    private val dy = intArrayOf(0, 1, 1, 1, 0, -1, -1, -1)
 
-    private fun cell(x: Int, y: Int) = grid[x + (y * tileWidth)]
+    private val searches = ThreadLocal.withInitial { Search() }
+    /** Cells expanded by the calling thread's last search. */
+    val expanded get() = searches.get().expanded
 
     override fun init() {}
 
-    /** Calculates the distance heuristic for this cell */
-    private fun h(cell: Cell): Float {
-        val dx = abs(cell.x - endX)
-        val dy = abs(cell.y - endY)
-        return dx + dy - 1.414f * min(dx, dy)
-    }
-
-    private fun checkAndUpdateCost(current: Cell, t: Cell, cost: Float) {
-        if (!t.closed || cost < t.g) {
-            t.closed = true
-            t.g = cost
-            t.cameFrom = current
-            addToHeap(t, cost + h(t))
-        }
-    }
-
-    private fun addToHeap(t: Cell, value: Float) {
-        if (t.inHeap) {
-            open.setValue(t, value)
-        } else {
-            open.add(t, value)
-            t.inHeap = true
-        }
-    }
-
-    private fun aStarSearch() {
-        //add the start location to open list.
-        addToHeap(cell(startX, startY), Float.MAX_VALUE)
-        cell(startX, startY).closed = true
-
-        var current: Cell
-        while (!open.isEmpty) {
-            current = open.pop() // Get a tile to explore
-            current.inHeap = false
-            if (current === cell(endX, endY) || current.value == Float.POSITIVE_INFINITY) { // Made it to the finish
-                return
-            }
-
-            // Check surrounding tiles
-            d8 { x1, y1 ->
-                val x = current.x + x1
-                val y = current.y + y1
-
-                if (!Structs.inBounds(x, y, tileWidth, tileHeight)) {
-                    return@d8
-                }
-
-                // Add to the open list with calculated cost
-                checkAndUpdateCost(
-                    current,
-                    cell(x, y),
-                    current.g * (if (abs(x1) + abs(y1) == 1) 1f else 1.00001f) + cell(x, y).added * if (abs(x1) + abs(y1) == 1) 1f else 1.414f // Tiebreaker is needed to draw correct path
-                )
-            }
-        }
-    }
-
-
     override fun findPath(
         start: Vec2,
         end: Vec2,
-        obstacles: Seq<Circle>,
+        danger: DangerField,
         width: Float,
         height: Float,
-        blocked: Int2P
-    ): Array<PositionWaypoint> {
-
-        tileWidth = ceil(width / tilesize).toInt() + 1
-        tileHeight = ceil(height / tilesize).toInt() + 1
-
-        start.clamp(0f, 0f, height, width)
-        end.clamp(0f, 0f, height, width)
-
-        //Reset
-        startX = World.toTile(start.x).coerceIn(0, tileWidth - 1)
-        startY = World.toTile(start.y).coerceIn(0, tileHeight - 1)
-        endX = World.toTile(end.x).coerceIn(0, tileWidth - 1)
-        endY = World.toTile(end.y).coerceIn(0, tileHeight - 1)
-
-        if (!gridSize.equals(tileWidth, tileHeight)) {
-            grid = Array(tileWidth * tileHeight) { Cell(it % tileWidth, it / tileWidth) }
-            gridSize.set(tileWidth, tileHeight)
+        blocked: Int2P,
+        terrain: SolidPred?,
+        blockedKey: Any?
+    ) = searches.get().findPath(start, end, danger, width, height, blocked)
+
+    /** Search state, every thread searching gets its own. */
+    private class Search {
+        private var tileWidth = 0
+        private var tileHeight = 0
+        private var generation = 0
+        private var seen = IntArray(0) // Generation in which each cell was last visited
+        private var parents = IntArray(0) // Cell the best path so far came from, -1 for the start and BLOCKED for solid cells
+        private var g = FloatArray(0) // Cost so far
+        private var danger = DangerField(0, 0)
+        private val open = NodeHeap()
+        private var endX = 0
+        private var endY = 0
+        var expanded = 0
+
+        /** Calculates the distance heuristic for this cell */
+        private fun h(x: Int, y: Int): Float {
+            val dx = abs(x - endX)
+            val dy = abs(y - endY)
+            return dx + dy - 1.414f * min(dx, dy)
         }
 
-        open.clear()
-
-        // Reset all cells
-        for (x in 0 until tileWidth) {
-            for (y in 0 until tileHeight) {
-                val cell = cell(x, y)
-                cell.g = 0f
-                cell.cameFrom = null
-                cell.closed = blocked(x, y)
-                cell.added = 1
-                cell.inHeap = false
+        private fun penalty(cell: Int) = danger.penalty(cell % tileWidth, cell / tileWidth)
+
+        private fun aStarSearch(start: Int, end: Int, blocked: Int2P) {
+            //add the start location to open list.
+            seen[start] = generation
+            parents[start] = -1
+            g[start] = 0f
+            open.forget(start)
+            open.add(start, Float.MAX_VALUE)
+
+            while (open.size > 0) {
+                val current = open.pop() // Get a tile to explore
+                expanded++
+                if (current == end) return // Made it to the finish
+                if ((expanded and 255) == 0 && NavigationScheduler.cancelled()) return // Nobody wants this path anymore
+                val cx = current % tileWidth
+                val cy = current / tileWidth
+
+                // Check surrounding tiles
+                for (dir in 0 until 8) {
+                    val x = cx + dx[dir]
+                    val y = cy + dy[dir]
+                    if (!Structs.inBounds(x, y, tileWidth, tileHeight)) continue
+                    val cell = x + y * tileWidth
+                    val diagonal = dir % 2 == 1
+                    // Tiebreaker is needed to draw correct path
+                    val cost = g[current] * (if (diagonal) 1.00001f else 1f) + penalty(cell) * (if (diagonal) 1.414f else 1f)
+
+                    if (seen[cell] != generation) {
+                        seen[cell] = generation
+                        open.forget(cell)
+                        if (blocked(x, y)) {
+                            parents[cell] = BLOCKED
+                            continue
+                        }
+                    } else if (parents[cell] == BLOCKED || cost >= g[cell]) continue
+
+                    // Add to the open list with calculated cost
+                    g[cell] = cost
+                    parents[cell] = current
+                    open.add(cell, cost + h(x, y))
+                }
             }
         }
 
-        for (turret in obstacles) {
-            Geometry.circle(World.toTile(turret.x), World.toTile(turret.y), World.toTile(turret.radius)) { x, y ->
-                if (Structs.inBounds(x, y, tileWidth, tileHeight)) cell(x, y).added += 100
+        fun findPath(
+            start: Vec2,
+            end: Vec2,
+            danger: DangerField,
+            width: Float,
+            height: Float,
+            blocked: Int2P
+        ): Array<PositionWaypoint> {
+
+            tileWidth = ceil(width / tilesize).toInt() + 1
+            tileHeight = ceil(height / tilesize).toInt() + 1
+
+            start.clamp(0f, 0f, height, width)
+            end.clamp(0f, 0f, height, width)
+
+            val startX = World.toTile(start.x).coerceIn(0, tileWidth - 1)
+            val startY = World.toTile(start.y).coerceIn(0, tileHeight - 1)
+            endX = World.toTile(end.x).coerceIn(0, tileWidth - 1)
+            endY = World.toTile(end.y).coerceIn(0, tileHeight - 1)
+
+            val size = tileWidth * tileHeight
+            if (seen.size != size) {
+                seen = IntArray(size)
+                parents = IntArray(size)
+                g = FloatArray(size)
+                open.resize(size)
+                generation = 0
             }
-        }
-
-        aStarSearch()
-
-        points.clear()
-        if (cell(endX, endY).closed) {
-            //Trace back the path
-            var current: Cell? = cell(endX, endY)
-            while (current?.cameFrom != null) {
-                points.add(pool.obtain().set(World.unconv(current.cameFrom!!.x.toFloat()), World.unconv(current.cameFrom!!.y.toFloat())))
-                current = current.cameFrom
+            if (++generation == Int.MAX_VALUE) { // Stamps would become ambiguous, start over
+                seen.fill(0)
+                generation = 1
             }
-            points.reverse()
-        }
-        return points.toTypedArray()
-    }
-
-    class Cell(val x: Int, val y: Int) : BinaryHeap.Node(Float.POSITIVE_INFINITY) {
-        var g = 0f // cost so far
-        // f = g + h, estimate of total cost. This is maintained in Node.value
-        var cameFrom: Cell? = null
-        var closed = false
-        var added = 1
-        var inHeap = false
-
-        override fun toString(): String {
-            return "[$x, $y]"
+            open.clear()
+            expanded = 0
+            this.danger = danger
+
+            val endCell = endX + endY * tileWidth
+            aStarSearch(startX + startY * tileWidth, endCell, blocked)
+
+            if (seen[endCell] != generation || parents[endCell] < 0) return emptyArray()
+            //Trace back the path, the points are every cell leading up to the end
+            var length = 0
+            var cell = parents[endCell]
+            while (cell >= 0) {
+                length++
+                cell = parents[cell]
+            }
+            val points = synchronized(pool) { Array(length) { pool.obtain() } }
+            cell = parents[endCell]
+            for (i in length - 1 downTo 0) {
+                points[i].set(World.unconv((cell % tileWidth).toFloat()), World.unconv((cell / tileWidth).toFloat()))
+                cell = parents[cell]
+            }
+            return points
         }
     }
 }
@@ -0,0 +1,92 @@
+package mindustry.client.navigation
+
+import arc.*
+import arc.func.*
+import arc.struct.*
+import mindustry.Vars.*
+import mindustry.content.*
+import mindustry.game.*
+import mindustry.game.EventType.*
+import mindustry.world.*
+import mindustry.world.blocks.*
+import mindustry.world.blocks.environment.*
+import mindustry.world.blocks.logic.*
+
+/**
+ * Tiles that may belong in one of the [BuildPath] queues, so that it doesn't have to look at every tile of the world.
+ * The whole world is sorted into the categories once after it loads, afterwards only tiles that changed or whose
+ * building changed team are sorted again. That happens when the index is next read rather than in the event, as
+ * construct builds only know what they are building after the tile change. Entries are candidates, the queues still
+ * check their exact conditions (team, builder, virus flag) which can change without the tile changing.
+ */
+object BuildIndex {
+    const val LOGIC = 0 // Processors and processors being built
+    const val BOULDERS = 1 // Breakable props and the construct builds replacing them
+    const val CLEANUP = 2 // Derelict blocks and construct builds
+    const val UPGRADES = 3 // Blocks which have an upgrade, including ones being deconstructed
+    const val UNFINISHED = 4 // Construct builds
+
+    /** Upgrades used by the upgrade queues of [BuildPath]. */
+    @JvmField val upgrades: ObjectMap<Block, Block> = ObjectMap.of(
+        Blocks.conveyor, Blocks.titaniumConveyor,
+        Blocks.conduit, Blocks.pulseConduit,
+        Blocks.mechanicalDrill, Blocks.pneumaticDrill
+    )
+
+    private val sets = Array(5) { IntSet() }
+    private val dirty = IntSet()
+    private var built = false
+
+    init {
+        Events.on(WorldLoadEvent::class.java) {
+            for (set in sets) set.clear()
+            dirty.clear()
+            built = false
+        }
+        Events.on(TileChangeEvent::class.java) { if (built) dirty.add(it.tile.pos()) }
+        Events.on(BuildTeamChangeEvent::class.java) { if (built) dirty.add(it.build.tile.pos()) }
+        Events.on(BlockBuildBeginEvent::class.java) { if (built) dirty.add(it.tile.pos()) }
+    }
+
+    /** Calls [cons] once for every tile in any of the [categories], in the order the categories are given. */
+    @JvmStatic
+    fun each(categories: IntSeq, cons: Cons<Tile>) {
+        update()
+        for (i in 0 until categories.size) {
+            val iterator = sets[categories.items[i]].iterator()
+            outer@ while (iterator.hasNext) {
+                val pos = iterator.next()
+                for (j in 0 until i) if (sets[categories.items[j]].contains(pos)) continue@outer // Already visited
+                cons.get(world.tile(pos) ?: continue)
+            }
+        }
+    }
+
+    private fun update() {
+        if (!built) {
+            for (tile in world.tiles) classify(tile)
+            built = true
+        }
+        val iterator = dirty.iterator()
+        while (iterator.hasNext) {
+            val tile = world.tile(iterator.next()) ?: continue
+            classify(tile)
+            if (tile.build != null && tile.build.tile != tile) classify(tile.build.tile) // A part of a bigger block changed
+        }
+        dirty.clear()
+    }
+
+    private fun classify(tile: Tile) {
+        val pos = tile.pos()
+        for (set in sets) set.remove(pos)
+        if (!tile.isCenter) return
+
+        val construct = tile.build as? ConstructBlock.ConstructBuild
+        val block = construct?.previous ?: tile.block()
+        if (tile.build is LogicBlock.LogicBuild || construct?.current is LogicBlock) sets[LOGIC].add(pos)
+        if (tile.breakable() && tile.block() is Prop || construct?.previous is Prop) sets[BOULDERS].add(pos)
+        if (construct != null || tile.team() == Team.derelict && tile.breakable() && tile.block() !is Prop) sets[CLEANUP].add(pos)
+        if (tile.build != null && upgrades.containsKey(block)) sets[UPGRADES].add(pos)
+        if (construct != null) sets[UNFINISHED].add(pos)
+    }
+}
@@ -27,32 +27,28 @@ import static mindustry.Vars.*;
 
 public class BuildPath extends Path { // FINISHME: Dear god, this file does not belong on this planet, its so bad.
     private boolean show, activeVirus;
-    Interval timer = new Interval(2);
+    Interval timer = new Interval();
     public Queue<BuildPlan> broken = new Queue<>(), boulders = new Queue<>(), assist = new Queue<>(), unfinished = new Queue<>(), cleanup = new Queue<>(), networkAssist = new Queue<>(), virus = new Queue<>(), drills = new Queue<>(), belts = new Queue<>(), overdrives = new Queue<>();
     public Seq<Queue<BuildPlan>> queues = new Seq<>();
     public Seq<Item> mineItems;
     private int cap;
-    private GridBits blocked = new GridBits(world.width(), world.height()), blockedPlayer = new GridBits(world.width(), world.height()), temp = new GridBits(world.width(), world.height());
+    private TurretMask danger = new TurretMask(world.width(), world.height());
     private int radius = Core.settings.getInt("defaultbuildpathradius");
     private final Vec2 origin = new Vec2(player.x, player.y);
-    private final ObjectMap<Block, Block> upgrades = ObjectMap.of(
-        Blocks.conveyor, Blocks.titaniumConveyor,
-        Blocks.conduit, Blocks.pulseConduit,
-        Blocks.mechanicalDrill, Blocks.pneumaticDrill
-    );
+    private final ObjectMap<Block, Block> upgrades = BuildIndex.upgrades;
+    private final IntSeq categories = new IntSeq();
+    private final Seq<OverdriveProjector.OverdriveBuild> sortedOverdrives = new Seq<>();
     private BuildPlan req;
     private boolean valid;
     private final Pool<BuildPlan> pool = Pools.get(BuildPlan.class, BuildPlan::new, 15_000); // This is cursed but
-    private final PQueue<BuildPlan> priority = new PQueue<>(301, Structs.comps(Structs.comparingBool(plan -> plan.block != null && player.unit().shouldSkip(plan, player.core())), Structs.comparingFloat(plan -> plan.dst(player))));
+    private final Seq<BuildPlan> affordable = new Seq<>(), unaffordable = new Seq<>(), scheduled = new Seq<>();
+    private final PlanScheduler scheduler = new PlanScheduler((x, y) -> danger.player(x * PlanScheduler.CLUSTER + PlanScheduler.CLUSTER / 2, y * PlanScheduler.CLUSTER + PlanScheduler.CLUSTER / 2) ? 4f : 1f);
     private final Seq<BuildPlan> freed = new Seq<>();
-    private CompletableFuture<Void> job = null;
+    private CompletableFuture<Void> job = null, dangerJob = null;
 
     static {
         Events.on(EventType.WorldLoadEvent.class, e -> { // Account for changing world sizes
-            if (Navigation.currentlyFollowing instanceof BuildPath bp) {
-                bp.blocked = new GridBits(world.width(), world.height());
-                bp.blockedPlayer = new GridBits(world.width(), world.height());
-            }
+            if (Navigation.currentlyFollowing instanceof BuildPath bp) bp.danger = new TurretMask(world.width(), world.height());
         });
     }
 
@@ -145,27 +141,14 @@ public class BuildPath extends Path { // FINISHME: Dear god, this file does not
                 }
             }
 
-            if (timer.get(1, 300)) {
-                clientThread.post(() -> {
+            if (dangerJob == null || dangerJob.isDone()) { // Only turrets that changed touch the masks so this can run often
+                var mask = danger;
+                dangerJob = clientThread.post(() -> {
+                    mask.begin();
                     for (var turret : Navigation.getEnts()) {
-                        if (!turret.canShoot()) continue;
-                        Geometry.circle(World.toTile(turret.x()), World.toTile(turret.y()), World.toTile(turret.range), (x, y) -> {
-                            if (Structs.inBounds(x, y, world.width(), world.height()) && turret.contains(x * tilesize, y * tilesize)) {
-                                if (turret.targetGround || turret.canHitPlayer()) {
-                                    temp.set(x, y);
-                                    if (turret.targetGround) blocked.set(x, y);
-                                    if (turret.canHitPlayer()) blockedPlayer.set(x, y);
-                                }
-                            }
-                        });
+                        if (turret.canShoot()) mask.set(turret, turret.x(), turret.y(), turret.range - tilesize, turret.targetGround, turret.canHitPlayer());
                     }
-                    for (var t : world.tiles) { // Unset tiles as needed
-                        if (!temp.get(t.x, t.y)) {
-                            blocked.set(t.x, t.y, false);
-                            blockedPlayer.set(t.x, t.y, false);
-                        }
-                    }
-                    temp.clear();
+                    mask.end();
                 });
             }
 
@@ -188,18 +171,34 @@ public class BuildPath extends Path { // FINISHME: Dear god, this file does not
                 }
             }
 
-            if (queues.contains(overdrives, true)) {
-                for (var overdrive : ClientVars.overdrives) {
-                    for (var other : ClientVars.overdrives) {
-                        if (((OverdriveProjector)overdrive.block).speedBoost > ((OverdriveProjector)other.block).speedBoost && Tmp.cr1.set(overdrive.x, overdrive.y, overdrive.realRange()).contains(Tmp.cr2.set(other.x, other.y, other.realRange()))) {
+            if (queues.contains(overdrives, true)) { // An overdrive can only contain the ones within its range on the x axis, sweep those instead of every pair
+                sortedOverdrives.set(ClientVars.overdrives).sort(o -> o.x);
+                for (var overdrive : sortedOverdrives) {
+                    float range = overdrive.realRange();
+                    int lo = 0, hi = sortedOverdrives.size;
+                    while (lo < hi) {
+                        int mid = (lo + hi) >>> 1;
+                        if (sortedOverdrives.get(mid).x < overdrive.x - range) lo = mid + 1;
+                        else hi = mid;
+                    }
+                    for (int i = lo; i < sortedOverdrives.size && sortedOverdrives.get(i).x <= overdrive.x + range; i++) {
+                        var other = sortedOverdrives.get(i);
+                        if (((OverdriveProjector)overdrive.block).speedBoost > ((OverdriveProjector)other.block).speedBoost && Tmp.cr1.set(overdrive.x, overdrive.y, range).contains(Tmp.cr2.set(other.x, other.y, other.realRange()))) {
                             overdrives.add(pool.obtain().set(other.tileX(), other.tileY()));
                         }
                     }
                 }
+                sortedOverdrives.clear();
             }
 
-            if (queues.contains(unfinished, true) || queues.contains(boulders, true) || queues.contains(cleanup, true) || queues.contains(virus, true) || queues.contains(drills, true) || queues.contains(belts, true)) {
-                for (Tile tile : world.tiles) {
+            categories.clear();
+            if (queues.contains(virus, true)) categories.add(BuildIndex.LOGIC);
+            if (queues.contains(boulders, true)) categories.add(BuildIndex.BOULDERS);
+            if (queues.contains(cleanup, true)) categories.add(BuildIndex.CLEANUP);
+            if (queues.contains(belts, true) || queues.contains(drills, true)) categories.add(BuildIndex.UPGRADES);
+            if (queues.contains(unfinished, true)) categories.add(BuildIndex.UNFINISHED);
+            if (!categories.isEmpty()) {
+                BuildIndex.each(categories, tile -> {
                     if (queues.contains(virus, true) && tile.team() == player.team() && tile.build instanceof LogicBlock.LogicBuild build && build.isVirus) { // Dont add configured processors
                         virus.add(pool.obtain().set(tile.x, tile.y));
 
@@ -214,7 +213,7 @@ public class BuildPath extends Path { // FINISHME: Dear god, this file does not
 
                         if (upgrades.containsKey(block)) {
                             Block upgrade = upgrades.get(block);
-                            if ((state.isCampaign() && !upgrade.unlocked()) || Structs.contains(upgrade.requirements, i -> !core.items.has(i.item, 100) && Mathf.round(i.amount * state.rules.buildCostMultiplier) > 0 && !(tile.build instanceof ConstructBlock.ConstructBuild))) continue;
+                            if ((state.isCampaign() && !upgrade.unlocked()) || Structs.contains(upgrade.requirements, i -> !core.items.has(i.item, 100) && Mathf.round(i.amount * state.rules.buildCostMultiplier) > 0 && !(tile.build instanceof ConstructBlock.ConstructBuild))) return;
                             if (block == Blocks.mechanicalDrill || (queues.contains(belts, true) && queues.contains(drills, true))) { // FINISHME: Just use a single queue for upgrades
                                 drills.add(pool.obtain().set(tile.x, tile.y, tile.build.rotation, upgrade));
                             } else {
@@ -227,16 +226,18 @@ public class BuildPath extends Path { // FINISHME: Dear god, this file does not
                             pool.obtain().set(tile.x, tile.y, tile.build.rotation, build.current, tile.build.config()) :
                             pool.obtain().set(tile.x, tile.y));
                     }
-                }
+                });
             }
              if (queues.contains(virus, true)) {
                  activeVirus = !virus.isEmpty();
                  if (!activeVirus) { // All processors broken or configured
-                     for (Tile tile : world.tiles) {
+                     categories.clear();
+                     categories.add(BuildIndex.LOGIC);
+                     BuildIndex.each(categories, tile -> {
                          if (tile.team() == player.team() && (tile.build instanceof ConstructBlock.ConstructBuild cb && cb.current instanceof LogicBlock || tile.build instanceof LogicBlock.LogicBuild build && build.code.startsWith("print \"Logic grief auto removed by:\"\nprint \""))) {
                              virus.add(pool.obtain().set(tile.x, tile.y));
                          }
-                     }
+                     });
                  }
              }
 
@@ -247,12 +248,15 @@ public class BuildPath extends Path { // FINISHME: Dear god, this file does not
                     for (int j = 0; j < queues.size; j++) {
                         var queue = queues.get(j); // Since we break out of the loop, we can't use the iterator
                         sortPlans(queue, all);
-                        if (priority.empty()) continue;
-
-                        for(int k = 0, count = Math.min(priority.size, 300); k < count; k++){ // Imagine a language with a repeat method
-                            player.unit().addBuild(priority.poll());
-                        }
-                        priority.clear();
+                        if (affordable.isEmpty() && unaffordable.isEmpty()) continue;
+
+                        scheduler.order(affordable, player.x, player.y, 300, scheduled);
+                        unaffordable.sort(plan -> plan.dst(player)); // Only ever built once everything affordable is done
+                        for (int k = 0; k < unaffordable.size && scheduled.size < 300; k++) scheduled.add(unaffordable.get(k));
+                        for (var plan : scheduled) player.unit().addBuild(plan);
+                        affordable.clear();
+                        unaffordable.clear();
+                        scheduled.clear();
                         break sort;
                     }
                     all = true;
@@ -281,12 +285,12 @@ public class BuildPath extends Path { // FINISHME: Dear god, this file does not
                 //discard invalid request
                 player.unit().plans.removeFirst();
             }
-        } else if (blockedPlayer.get(player.tileX(), player.tileY())) { // Leave enemy turret range while not building
+        } else if (danger.player(player.tileX(), player.tileY())) { // Leave enemy turret range while not building
             if (job == null || job.isDone()) {
                 job = clientThread.post(() -> { // FINISHME: This is totally not inefficient at all...
                     var safeTiles = new Seq<Tile>();
                     world.tiles.eachTile(t -> {
-                        if (!blockedPlayer.get(t.x, t.y)) safeTiles.add(t);
+                        if (!danger.player(t.x, t.y)) safeTiles.add(t);
                     });
                     var tile = Geometry.findClosest(player.x, player.y, safeTiles);
                     waypoint.set(tile.getX(), tile.getY(), 0, 0);
@@ -315,17 +319,18 @@ public class BuildPath extends Path { // FINISHME: Dear god, this file does not
     }
 
     private Seq<Tile> tempTiles = new Seq<>();
-    /** Adds all the plans to the priority variable
+    /** Adds the plans that can be built to {@link #affordable} and {@link #unaffordable} for the {@link #scheduler} to order
      * @param includeAll whether to include unaffordable plans (appended to end of affordable ones) */
-    private void sortPlans(Queue<BuildPlan> plans, boolean includeAll) { // FINISHME: This is bad. Why does this even use a PQ? Its almost certainly slower than a Seq that is sorted once at the end (not to mention it would fix the PQ's super redundant sorting)
+    private void sortPlans(Queue<BuildPlan> plans, boolean includeAll) {
         if (plans == null) return; // FINISHME: Why is this null check a thing? Is the plan queue ever null? If it is, that should be fixed.
         float rad = radius * tilesize;
         for (int i = 0, size = plans.size; i < size; i++) {
             var plan = plans.get(i);
-            if ((radius == 0 || plan.within(origin, rad)) && validPlan(plan) && !plan.tile().getLinkedTilesAs(plan.block, tempTiles).contains(t -> blocked.get(t.x, t.y))
-                && (includeAll || !player.unit().shouldSkip(plan, player.core()) && !blocked.get(plan.x, plan.y))
-            ) { // FINISHME: Implement and use a min-max heap and remove the 300th element whenever the priority queue is larger then that as we only use that many.
-                priority.add(plan);
+            if ((radius == 0 || plan.within(origin, rad)) && validPlan(plan) && !plan.tile().getLinkedTilesAs(plan.block, tempTiles).contains(t -> danger.ground(t.x, t.y))
+                && (includeAll || !player.unit().shouldSkip(plan, player.core()) && !danger.ground(plan.x, plan.y))
+            ) {
+                if (plan.block != null && player.unit().shouldSkip(plan, player.core())) unaffordable.add(plan);
+                else affordable.add(plan);
             }
         }
     }
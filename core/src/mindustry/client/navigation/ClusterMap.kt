@@ -0,0 +1,198 @@
+package mindustry.client.navigation
+
+import arc.math.*
+import arc.struct.*
+import mindustry.entities.EntityCollisions.*
+
+/**
+ * HPA* style abstraction of the tile grid for one [solid] predicate. The map is cut into [SIZE] tile clusters, the
+ * free tiles of every cluster are split into 8-connected components and each component is a node of an abstract
+ * graph, linked to the components of neighbouring clusters it touches. Searching that graph finds out whether a trip
+ * is possible at all and which clusters an optimal path will roughly go through in a fraction of the time a full
+ * search takes. Changed tiles only mark their cluster [dirty], dirty clusters are relabeled before the next query.
+ */
+class ClusterMap(val width: Int, val height: Int, private val solid: SolidPred) {
+    companion object {
+        const val SIZE = 16
+        private const val MAX_COMPONENTS = SIZE * SIZE / 2 // Corner cutting makes even a checkerboard one component
+    }
+
+    val clustersX = (width + SIZE - 1) / SIZE
+    val clustersY = (height + SIZE - 1) / SIZE
+    private val labels = ShortArray(width * height) // Component of each tile within its cluster, -1 when solid
+    private val components = IntArray(clustersX * clustersY)
+    private val edges = arrayOfNulls<IntSeq>(clustersX * clustersY * MAX_COMPONENTS) // Node -> linked nodes
+    private val dirty = IntSet()
+    private var built = false
+
+    // Abstract search state, stamped like the state of the tile searches
+    private var generation = 0
+    private val seen = IntArray(edges.size)
+    private val parents = IntArray(edges.size)
+    private val g = FloatArray(edges.size)
+    private val open = NodeHeap().apply { resize(edges.size) }
+    private val stack = IntArray(SIZE * SIZE)
+
+    fun cluster(x: Int, y: Int) = x / SIZE + y / SIZE * clustersX
+
+    /** Marks the cluster containing the tile as changed, thread safe. */
+    fun dirty(x: Int, y: Int) {
+        if (x !in 0 until width || y !in 0 until height) return
+        synchronized(dirty) { dirty.add(cluster(x, y)) }
+    }
+
+    /**
+     * Finds the clusters a path from ([sx], [sy]) to ([ex], [ey]) should stay within: the clusters along the best
+     * abstract path and the ring around them are stamped with [stamp] in [allowed]. Entering a cluster costs the
+     * distance between cluster centers multiplied by [penalty] of that cluster. Returns false if the end can't be
+     * reached, if either end is solid the whole map is allowed as the tile search decides what happens then. Queries
+     * from different threads take turns.
+     */
+    @Synchronized
+    fun corridor(sx: Int, sy: Int, ex: Int, ey: Int, allowed: IntArray, stamp: Int, penalty: (cluster: Int) -> Float): Boolean {
+        update()
+        val startLabel = labels[sx + sy * width].toInt()
+        val endLabel = labels[ex + ey * width].toInt()
+        if (startLabel == -1 || endLabel == -1) {
+            allowed.fill(stamp)
+            return true
+        }
+        val start = cluster(sx, sy) * MAX_COMPONENTS + startLabel
+        val end = cluster(ex, ey) * MAX_COMPONENTS + endLabel
+        val endCluster = cluster(ex, ey)
+
+        if (++generation == Int.MAX_VALUE) {
+            seen.fill(0)
+            generation = 1
+        }
+        open.clear()
+        seen[start] = generation
+        parents[start] = -1
+        g[start] = 0f
+        open.forget(start)
+        open.add(start, 0f)
+        while (open.size > 0) {
+            val current = open.pop()
+            if (current == end) break
+            val list = edges[current] ?: continue
+            val cluster = current / MAX_COMPONENTS
+            for (i in 0 until list.size) {
+                val next = list.items[i]
+                val nextCluster = next / MAX_COMPONENTS
+                val diagonal = nextCluster % clustersX != cluster % clustersX && nextCluster / clustersX != cluster / clustersX
+                val cost = g[current] + (if (diagonal) 1.414f else 1f) * SIZE * penalty(nextCluster)
+                if (seen[next] != generation) {
+                    seen[next] = generation
+                    open.forget(next)
+                } else if (cost >= g[next]) continue
+                g[next] = cost
+                parents[next] = current
+                open.add(next, cost + Mathf.dst((nextCluster % clustersX).toFloat(), (nextCluster / clustersX).toFloat(), (endCluster % clustersX).toFloat(), (endCluster / clustersX).toFloat()) * SIZE)
+            }
+        }
+        if (seen[end] != generation) return false
+
+        var node = end
+        while (node != -1) {
+            val cluster = node / MAX_COMPONENTS
+            val cx = cluster % clustersX
+            val cy = cluster / clustersX
+            for (x in (cx - 1).coerceAtLeast(0)..(cx + 1).coerceAtMost(clustersX - 1)) {
+                for (y in (cy - 1).coerceAtLeast(0)..(cy + 1).coerceAtMost(clustersY - 1)) allowed[x + y * clustersX] = stamp
+            }
+            node = parents[node]
+        }
+        return true
+    }
+
+    /** Relabels the dirty clusters and relinks them along with their neighbours, or builds everything the first time. */
+    private fun update() {
+        val changed = IntSet()
+        synchronized(dirty) {
+            if (!built) {
+                for (i in 0 until clustersX * clustersY) changed.add(i)
+                built = true
+            } else {
+                changed.addAll(dirty)
+            }
+            dirty.clear()
+        }
+        if (changed.isEmpty) return
+
+        val relink = IntSet()
+        val iterator = changed.iterator()
+        while (iterator.hasNext) {
+            val cluster = iterator.next()
+            label(cluster)
+            val cx = cluster % clustersX
+            val cy = cluster / clustersX
+            for (x in (cx - 1).coerceAtLeast(0)..(cx + 1).coerceAtMost(clustersX - 1)) {
+                for (y in (cy - 1).coerceAtLeast(0)..(cy + 1).coerceAtMost(clustersY - 1)) relink.add(x + y * clustersX)
+            }
+        }
+        val links = relink.iterator()
+        while (links.hasNext) link(links.next())
+    }
+
+    /** Flood fills the free tiles of a cluster into components. */
+    private fun label(cluster: Int) {
+        val minX = cluster % clustersX * SIZE
+        val minY = cluster / clustersX * SIZE
+        val maxX = (minX + SIZE).coerceAtMost(width) - 1
+        val maxY = (minY + SIZE).coerceAtMost(height) - 1
+        for (x in minX..maxX) for (y in minY..maxY) labels[x + y * width] = if (solid.solid(x, y)) -1 else -2 // -2 is free and unlabeled
+
+        var count = 0
+        for (x in minX..maxX) {
+            for (y in minY..maxY) {
+                if (labels[x + y * width].toInt() != -2) continue
+                var size = 0
+                stack[size++] = x + y * width
+                labels[x + y * width] = count.toShort()
+                while (size > 0) {
+                    val tile = stack[--size]
+                    val tx = tile % width
+                    val ty = tile / width
+                    for (nx in (tx - 1).coerceAtLeast(minX)..(tx + 1).coerceAtMost(maxX)) {
+                        for (ny in (ty - 1).coerceAtLeast(minY)..(ty + 1).coerceAtMost(maxY)) {
+                            val next = nx + ny * width
+                            if (labels[next].toInt() != -2) continue
+                            labels[next] = count.toShort()
+                            stack[size++] = next
+                        }
+                    }
+                }
+                count++
+            }
+        }
+        components[cluster] = count
+    }
+
+    /** Rebuilds the links of every component in a cluster by looking across its border. */
+    private fun link(cluster: Int) {
+        val base = cluster * MAX_COMPONENTS
+        for (i in base until base + MAX_COMPONENTS) edges[i]?.clear()
+
+        val minX = cluster % clustersX * SIZE
+        val minY = cluster / clustersX * SIZE
+        val maxX = (minX + SIZE).coerceAtMost(width) - 1
+        val maxY = (minY + SIZE).coerceAtMost(height) - 1
+        for (x in minX..maxX) {
+            for (y in minY..maxY) {
+                if (x != minX && x != maxX && y != minY && y != maxY) continue // Only border tiles have neighbours outside
+                val label = labels[x + y * width].toInt()
+                if (label < 0) continue
+                for (nx in x - 1..x + 1) {
+                    for (ny in y - 1..y + 1) {
+                        if (nx !in 0 until width || ny !in 0 until height || nx in minX..maxX && ny in minY..maxY) continue
+                        val other = labels[nx + ny * width].toInt()
+                        if (other < 0) continue
+                        val node = cluster(nx, ny) * MAX_COMPONENTS + other
+                        val list = edges[base + label] ?: IntSeq(4).also { edges[base + label] = it }
+                        if (!list.contains(node)) list.add(node)
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package mindustry.client.navigation
+
+import arc.*
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.*
+import arc.util.pooling.*
+import mindustry.Vars.*
+import mindustry.client.navigation.waypoints.*
+import mindustry.core.*
+import mindustry.entities.EntityCollisions.*
+import mindustry.game.*
+import kotlin.math.*
+
+/**
+ * Moving target D* Lite over the tile grid. The search runs forwards from the unit and is kept between calls: when the
+ * goal moves the keys are offset by how far it went, and when the unit moves along the last path only the part of the
+ * search tree behind it is thrown away. Tiles that changed and turrets that moved (read from the change log of the
+ * [DangerField]) only repair the costs around them. Different blocking, a start off the search tree or a flood of changes
+ * starts over. Costs are the same as [AStarNavigator]'s, the search state is shared so calls take turns.
+ */
+object DStarLiteNavigator : Navigator() {
+    private const val INF = Float.POSITIVE_INFINITY
+    private val pool = Pools.get(PositionWaypoint::class.java) { PositionWaypoint() }
+    private val dx = intArrayOf(1, 1, 0, -1, -1, -1, 0, 1)
+    private val dy = intArrayOf(0, 1, 1, 1, 0, -1, -1, -1)
+
+    private var tileWidth = 0
+    private var tileHeight = 0
+    private var generation = 0 // Cells not stamped with the current generation have been forgotten
+    private var stamps = IntArray(0)
+    private var g = FloatArray(0)
+    private var rhs = FloatArray(0) // One step lookahead of g
+    private var parent = IntArray(0) // Neighbour rhs comes from, the search tree is rooted at the start
+    private var solidity = 0 // Cells not checked in the current solidity have to ask blocked again
+    private var checked = IntArray(0)
+    private var solid = BooleanArray(0)
+    private var marked = IntArray(0) // Pass in which a cell was last visited, to skip repeats
+    private var pass = 0
+    private val open = NodeHeap()
+    private val kept = IntSeq()
+    private var km = 0f // Sum of the heuristic distances the goal moved, keeps old keys comparable
+    private var start = -1
+    private var goal = 0
+    private var danger = DangerField(0, 0)
+    private var logged = 0L
+    private var lastTerrain: SolidPred? = null
+    private var lastBlockedKey: Any? = null
+    private lateinit var blocked: Int2P
+    private val changed = IntSet() // Tiles changed since the last search, only recorded while this is the navigator
+    @Volatile private var missed = false // Tiles changed while another navigator was selected, the last search can't be repaired
+    /** Cells expanded by the last call. */
+    var expanded = 0
+        private set
+
+    init {
+        Events.on(EventType.WorldLoadEvent::class.java) {
+            synchronized(changed) { changed.clear() }
+            missed = true
+        }
+        Events.on(EventType.TileChangeEvent::class.java) {
+            if (Navigation.isSelected(this)) synchronized(changed) { changed.add(it.tile.pos()) }
+            else missed = true
+        }
+    }
+
+    override fun init() {}
+
+    private fun h(a: Int, b: Int): Float {
+        val dx = abs(a % tileWidth - b % tileWidth)
+        val dy = abs(a / tileWidth - b / tileWidth)
+        return dx + dy + (1.414f - 2) * min(dx, dy)
+    }
+
+    private fun touch(cell: Int) {
+        if (stamps[cell] == generation) return
+        stamps[cell] = generation
+        g[cell] = INF
+        rhs[cell] = INF
+        parent[cell] = -1
+        open.forget(cell)
+    }
+
+    private fun solid(cell: Int): Boolean {
+        if (checked[cell] != solidity) {
+            checked[cell] = solidity
+            solid[cell] = blocked(cell % tileWidth, cell / tileWidth)
+        }
+        return solid[cell]
+    }
+
+    /** Cost of stepping into [cell] from a neighbour. */
+    private fun cost(cell: Int, diagonal: Boolean): Float {
+        if (solid(cell)) return INF
+        return danger.penalty(cell % tileWidth, cell / tileWidth) * (if (diagonal) 1.414f else 1f)
+    }
+
+    private fun key(cell: Int) = min(g[cell], rhs[cell]) + h(goal, cell) + km
+
+    private inline fun neighbours(cell: Int, cons: (next: Int, diagonal: Boolean) -> Unit) {
+        val x = cell % tileWidth
+        val y = cell / tileWidth
+        for (dir in 0 until 8) {
+            val nx = x + dx[dir]
+            val ny = y + dy[dir]
+            if (Structs.inBounds(nx, ny, tileWidth, tileHeight)) cons(nx + ny * tileWidth, dir % 2 == 1)
+        }
+    }
+
+    private fun update(cell: Int) {
+        touch(cell)
+        if (cell != start) {
+            var best = INF
+            var from = -1
+            neighbours(cell) { next, diagonal ->
+                touch(next)
+                if (g[next] != INF) {
+                    val cost = g[next] + cost(cell, diagonal)
+                    if (cost < best) {
+                        best = cost
+                        from = next
+                    }
+                }
+            }
+            rhs[cell] = best
+            parent[cell] = from
+        }
+        if (g[cell] != rhs[cell]) open.add(cell, key(cell)) else open.remove(cell)
+    }
+
+    private fun nextPass() {
+        if (++pass == Int.MAX_VALUE) {
+            marked.fill(0)
+            pass = 1
+        }
+    }
+
+    /** Updates [cell] after the cost of stepping into it changed, [pass] skips cells repaired already. */
+    private fun repair(cell: Int) {
+        if (marked[cell] == pass) return
+        marked[cell] = pass
+        update(cell)
+    }
+
+    private fun compute(): Boolean {
+        touch(goal)
+        while (open.size > 0 && (open.peekKey() < key(goal) || rhs[goal] != g[goal])) {
+            if ((++expanded and 255) == 0 && NavigationScheduler.cancelled()) return false // Nobody wants this path anymore
+            val old = open.peekKey()
+            val cell = open.pop()
+            val key = key(cell)
+            if (old < key) {
+                open.add(cell, key) // The goal moved since it was queued
+            } else if (g[cell] > rhs[cell]) {
+                g[cell] = rhs[cell]
+                neighbours(cell) { next, _ -> update(next) }
+            } else {
+                g[cell] = INF
+                update(cell)
+                neighbours(cell) { next, _ -> update(next) }
+            }
+        }
+        return true
+    }
+
+    private fun nextGeneration() {
+        if (++generation == Int.MAX_VALUE) { // Stamps would become ambiguous, start over
+            stamps.fill(0)
+            generation = 1
+        }
+    }
+
+    private fun restart(start: Int) {
+        nextGeneration()
+        if (++solidity == Int.MAX_VALUE) {
+            checked.fill(0)
+            solidity = 1
+        }
+        open.clear()
+        km = 0f
+        this.start = start
+        touch(start)
+        rhs[start] = 0f
+        open.add(start, key(start))
+    }
+
+    /**
+     * Makes [cell] the root of the search tree. Cells whose path from the old start runs through it keep their costs
+     * minus the cost of getting to it, the rest are forgotten and the cells around the kept part searched again. Returns
+     * false if [cell] isn't on the tree, which needs a restart.
+     */
+    private fun reroot(cell: Int): Boolean {
+        if (stamps[cell] != generation || rhs[cell] == INF) return false
+        val shift = rhs[cell]
+        nextPass()
+        kept.clear()
+        kept.add(cell)
+        marked[cell] = pass
+        var i = 0
+        while (i < kept.size) {
+            val from = kept.items[i++]
+            neighbours(from) { next, _ ->
+                if (stamps[next] == generation && parent[next] == from && marked[next] != pass) {
+                    marked[next] = pass
+                    kept.add(next)
+                }
+            }
+        }
+
+        nextGeneration()
+        open.clear()
+        km = 0f
+        start = cell
+        for (j in 0 until kept.size) {
+            val next = kept.items[j]
+            stamps[next] = generation
+            g[next] -= shift
+            rhs[next] -= shift
+        }
+        rhs[cell] = 0f
+        parent[cell] = -1
+        for (j in 0 until kept.size) if (g[kept.items[j]] != rhs[kept.items[j]]) open.add(kept.items[j], key(kept.items[j]))
+        for (j in 0 until kept.size) neighbours(kept.items[j]) { next, _ ->
+            if (marked[next] != pass) { // Forgotten cells next to the kept ones, the search continues from there
+                marked[next] = pass
+                update(next)
+            }
+        }
+        return true
+    }
+
+    @Synchronized
+    override fun findPath(
+        start: Vec2,
+        end: Vec2,
+        danger: DangerField,
+        width: Float,
+        height: Float,
+        blocked: Int2P,
+        terrain: SolidPred?,
+        blockedKey: Any?
+    ): Array<PositionWaypoint> {
+        val tileWidth = ceil(width / tilesize).toInt() + 1
+        val tileHeight = ceil(height / tilesize).toInt() + 1
+
+        start.clamp(0f, 0f, height, width)
+        end.clamp(0f, 0f, height, width)
+
+        val startCell = World.toTile(start.x).coerceIn(0, tileWidth - 1) + World.toTile(start.y).coerceIn(0, tileHeight - 1) * tileWidth
+        val goalCell = World.toTile(end.x).coerceIn(0, tileWidth - 1) + World.toTile(end.y).coerceIn(0, tileHeight - 1) * tileWidth
+        this.blocked = blocked
+        expanded = 0
+
+        val size = tileWidth * tileHeight
+        if (stamps.size != size) {
+            stamps = IntArray(size)
+            g = FloatArray(size)
+            rhs = FloatArray(size)
+            parent = IntArray(size)
+            checked = IntArray(size)
+            solid = BooleanArray(size)
+            marked = IntArray(size)
+            open.resize(size)
+            generation = 0
+            solidity = 0
+            this.start = -1
+        }
+        this.tileWidth = tileWidth
+        this.tileHeight = tileHeight
+
+        val tiles = IntSeq()
+        synchronized(changed) {
+            val iterator = changed.iterator()
+            while (iterator.hasNext) tiles.add(iterator.next())
+            changed.clear()
+        }
+        // Solidity is cached per cell, so anything blocked depends on besides the tiles has to start over as well
+        var restart = this.start == -1 || danger !== this.danger || terrain !== lastTerrain || blockedKey != lastBlockedKey || missed
+        missed = false
+        if (!restart) {
+            if (startCell != this.start) restart = !reroot(startCell)
+        }
+        if (!restart) {
+            if (goalCell != goal) {
+                km += h(goal, goalCell)
+                goal = goalCell
+            }
+            nextPass()
+            for (i in 0 until tiles.size) {
+                val x = Point2.x(tiles.items[i]).toInt()
+                val y = Point2.y(tiles.items[i]).toInt()
+                if (!Structs.inBounds(x, y, tileWidth, tileHeight)) continue
+                val cell = x + y * tileWidth
+                checked[cell] = 0 // Whether it is solid has to be asked again
+                repair(cell)
+            }
+            var repairs = 0
+            restart = !synchronized(danger) {
+                danger.changes(logged) { tile ->
+                    if (repairs++ < size / 8) repair(tile % danger.width + tile / danger.width * tileWidth)
+                }.also { logged = danger.logged }
+            } || repairs >= size / 8 // Starting over is cheaper than repairing most of the map
+        } else {
+            logged = synchronized(danger) { danger.logged }
+        }
+        if (restart) {
+            this.danger = danger
+            lastTerrain = terrain
+            lastBlockedKey = blockedKey
+            goal = goalCell
+            restart(startCell)
+        }
+
+        if (!compute() || g[goalCell] == INF) return emptyArray()
+
+        // Walk the search tree back from the goal, the points are every cell from the start leading up to the goal like A*'s
+        val cells = IntSeq()
+        var cell = goalCell
+        while (cell != startCell) {
+            cell = parent[cell]
+            if (cell == -1 || cells.size > size) return emptyArray()
+            cells.add(cell)
+        }
+        cells.reverse()
+        val points = synchronized(pool) { Array(cells.size) { pool.obtain() } }
+        for (i in 0 until cells.size) points[i].set(World.unconv((cells.items[i] % tileWidth).toFloat()), World.unconv((cells.items[i] / tileWidth).toFloat()))
+        return points
+    }
+}
@@ -0,0 +1,109 @@
+package mindustry.client.navigation
+
+import arc.math.geom.*
+import arc.struct.*
+import mindustry.core.*
+
+/**
+ * Persistent turret penalty grid for the navigators. Every source of danger (a turret, a unit, a drop zone) is
+ * stamped into a per tile reference count once and only restamped when it moves to another tile, changes range or
+ * stops being dangerous, so repeated path queries skip rasterising circles entirely. Callers describe the current
+ * sources between [begin] and [end], sources that weren't mentioned are removed. Chunks of [CHUNK] tiles keep a count
+ * of their covered tiles so that whole areas can be known to be safe without looking at them.
+ */
+class DangerField(val width: Int, val height: Int) {
+    companion object {
+        const val CHUNK = ClusterMap.SIZE
+        const val PENALTY = 100
+        private const val LOG = 1 shl 16
+    }
+
+    private class Stamp(var x: Int, var y: Int, var radius: Int, var generation: Int)
+
+    val chunksX = (width + CHUNK - 1) / CHUNK
+    private val counts = IntArray(width * height)
+    val chunks = chunksX * ((height + CHUNK - 1) / CHUNK)
+    private val covered = IntArray(chunks)
+    private val stamps = ObjectMap<Any, Stamp>()
+    private var generation = 0
+    /** Bumped whenever any tile changes. */
+    var version = 0
+        private set
+    private val log = IntArray(LOG) // Ring of the last tiles whose penalty changed
+    /** Amount of tiles ever written to the change log, pass it to [changes] to read what changed since. */
+    var logged = 0L
+        private set
+
+    /** Cost of entering a tile, 1 plus [PENALTY] for every source covering it. */
+    fun penalty(x: Int, y: Int) = if (x in 0 until width && y in 0 until height) 1 + PENALTY * counts[x + y * width] else 1
+
+    /** Amount of covered tiles in the chunk. */
+    fun covered(chunk: Int) = covered[chunk]
+
+    fun begin() {
+        generation++
+    }
+
+    /** Declares that [key] is dangerous within [radius] world units of ([x], [y]), this is O(1) unless it changed tiles. */
+    fun set(key: Any, x: Float, y: Float, radius: Float) {
+        val tx = World.toTile(x)
+        val ty = World.toTile(y)
+        val tr = World.toTile(radius)
+        val stamp = stamps[key]
+        if (stamp == null) {
+            stamps.put(key, Stamp(tx, ty, tr, generation))
+            stamp(tx, ty, tr, 1)
+            return
+        }
+        stamp.generation = generation
+        if (stamp.x == tx && stamp.y == ty && stamp.radius == tr) return
+        stamp(stamp.x, stamp.y, stamp.radius, -1)
+        stamp.x = tx
+        stamp.y = ty
+        stamp.radius = tr
+        stamp(tx, ty, tr, 1)
+    }
+
+    /** Removes every source that wasn't [set] since [begin]. */
+    fun end() {
+        val entries = stamps.values()
+        while (entries.hasNext()) {
+            val stamp = entries.next()
+            if (stamp.generation == generation) continue
+            stamp(stamp.x, stamp.y, stamp.radius, -1)
+            entries.remove()
+        }
+    }
+
+    /**
+     * Calls [cons] with every tile whose penalty changed after the log reached [since], tiles may repeat. Returns false
+     * without calling anything if the log was overwritten in the meantime.
+     */
+    fun changes(since: Long, cons: (tile: Int) -> Unit): Boolean {
+        if (logged - since > LOG) return false
+        for (i in since until logged) cons(log[(i and (LOG - 1).toLong()).toInt()])
+        return true
+    }
+
+    fun clear() {
+        counts.fill(0)
+        covered.fill(0)
+        stamps.clear()
+        version++
+        logged += LOG + 1 // Everything changed, readers of the log have to start over
+    }
+
+    private fun stamp(cx: Int, cy: Int, radius: Int, delta: Int) {
+        version++
+        Geometry.circle(cx, cy, radius) { x, y ->
+            if (x in 0 until width && y in 0 until height) {
+                val i = x + y * width
+                val chunk = x / CHUNK + y / CHUNK * chunksX
+                if (counts[i] == 0) covered[chunk]++
+                counts[i] += delta
+                if (counts[i] == 0) covered[chunk]--
+                log[(logged++ and (LOG - 1).toLong()).toInt()] = i
+            }
+        }
+    }
+}
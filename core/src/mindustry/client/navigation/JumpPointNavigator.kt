@@ -0,0 +1,293 @@
+package mindustry.client.navigation
+
+import arc.*
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.*
+import arc.util.pooling.*
+import mindustry.Vars.*
+import mindustry.client.navigation.waypoints.*
+import mindustry.core.*
+import mindustry.entities.EntityCollisions.*
+import mindustry.game.*
+import kotlin.math.*
+
+/**
+ * Jump point search for the uniform cost parts of the grid with a fallback to plain weighted A* around turrets. Where
+ * every tile costs the same, straight and diagonal runs are skipped over until something forces a turn, which keeps
+ * the open set tiny on big open maps. Tiles with a turret penalty (and the tiles leaving them) are expanded in all
+ * eight directions like [AStarNavigator] does, penalties come from the persistent [DangerField]. When the terrain is known the search is first restricted
+ * to the clusters of a [ClusterMap] path, trips that can't succeed are rejected without flooding the map.
+ */
+object JumpPointNavigator : Navigator() {
+    private val pool = Pools.get(PositionWaypoint::class.java) { PositionWaypoint() }
+    private val dx = intArrayOf(1, 1, 0, -1, -1, -1, 0, 1)
+    private val dy = intArrayOf(0, 1, 1, 1, 0, -1, -1, -1)
+    private const val SQRT2 = 1.414f
+
+    private val clusters = ObjectMap<SolidPred, ClusterMap>()
+    private val searches = ThreadLocal.withInitial { Search() }
+    /** Nodes expanded by the calling thread's last search. */
+    val expanded get() = searches.get().expanded
+
+    init {
+        Events.on(EventType.WorldLoadEvent::class.java) { synchronized(clusters) { clusters.clear() } }
+        Events.on(EventType.TileChangeEvent::class.java) {
+            synchronized(clusters) { for (map in clusters.values()) map.dirty(it.tile.x.toInt(), it.tile.y.toInt()) }
+        }
+    }
+
+    override fun init() {}
+
+    private fun clusterMap(tileWidth: Int, tileHeight: Int, terrain: SolidPred): ClusterMap = synchronized(clusters) {
+        var map = clusters[terrain]
+        if (map == null || map.width != tileWidth || map.height != tileHeight) {
+            map = ClusterMap(tileWidth, tileHeight, terrain)
+            clusters.put(terrain, map)
+        }
+        map
+    }
+
+    override fun findPath(
+        start: Vec2,
+        end: Vec2,
+        danger: DangerField,
+        width: Float,
+        height: Float,
+        blocked: Int2P,
+        terrain: SolidPred?,
+        blockedKey: Any?
+    ) = searches.get().findPath(start, end, danger, width, height, blocked, terrain)
+
+    /** Search state, every thread searching gets its own. */
+    private class Search {
+        private var tileWidth = 0
+        private var tileHeight = 0
+        private var generation = 0 // Stamps the visited cells and allowed clusters of the current search
+        private var query = 0 // Stamps the solid tiles, these are shared by every search of a query
+        private var seen = IntArray(0)
+        private var parents = IntArray(0)
+        private var g = FloatArray(0)
+        private var checked = IntArray(0) // Query in which solid was last filled in from blocked
+        private var solid = BooleanArray(0)
+        private var danger = DangerField(0, 0)
+        private var allowed = IntArray(0) // Clusters the search may enter are stamped with the generation
+        private var restricted = false
+        private val open = NodeHeap()
+        private lateinit var blocked: Int2P
+        private var end = 0
+        private var endX = 0
+        private var endY = 0
+        var expanded = 0
+
+        private fun free(x: Int, y: Int): Boolean {
+            if (!Structs.inBounds(x, y, tileWidth, tileHeight)) return false
+            if (restricted && allowed[x / ClusterMap.SIZE + y / ClusterMap.SIZE * ((tileWidth + ClusterMap.SIZE - 1) / ClusterMap.SIZE)] != generation) return false
+            val cell = x + y * tileWidth
+            if (checked[cell] != query) {
+                checked[cell] = query
+                solid[cell] = blocked(x, y)
+            }
+            return !solid[cell]
+        }
+
+        private fun penalty(cell: Int) = danger.penalty(cell % tileWidth, cell / tileWidth)
+
+        private fun h(x: Int, y: Int): Float {
+            val dx = abs(x - endX)
+            val dy = abs(y - endY)
+            return dx + dy + (SQRT2 - 2) * min(dx, dy)
+        }
+
+        private fun relax(cell: Int, parent: Int, cost: Float) {
+            if (seen[cell] != generation) {
+                seen[cell] = generation
+                open.forget(cell)
+            } else if (cost >= g[cell]) return
+            g[cell] = cost
+            parents[cell] = parent
+            open.add(cell, cost + h(cell % tileWidth, cell / tileWidth))
+        }
+
+        /** Whether moving from ([x], [y]) in the given direction has a forced neighbour at the destination. */
+        private fun forced(x: Int, y: Int, dx: Int, dy: Int): Boolean {
+            return if (dx != 0 && dy != 0) {
+                (!free(x - dx, y) && free(x - dx, y + dy)) || (!free(x, y - dy) && free(x + dx, y - dy))
+            } else if (dx != 0) {
+                (!free(x, y + 1) && free(x + dx, y + 1)) || (!free(x, y - 1) && free(x + dx, y - 1))
+            } else {
+                (!free(x + 1, y) && free(x + 1, y + dy)) || (!free(x - 1, y) && free(x - 1, y + dy))
+            }
+        }
+
+        /** Runs from ([sx], [sy]) in a direction until a jump point, returns its cell or -1 if the run hits a wall. */
+        private fun jump(sx: Int, sy: Int, dx: Int, dy: Int): Int {
+            var x = sx
+            var y = sy
+            while (true) {
+                x += dx
+                y += dy
+                if (!free(x, y)) return -1
+                val cell = x + y * tileWidth
+                if (cell == end || penalty(cell) != 1 || forced(x, y, dx, dy)) return cell
+                if (dx != 0 && dy != 0 && (jump(x, y, dx, 0) != -1 || jump(x, y, 0, dy) != -1)) return cell
+            }
+        }
+
+        private fun expand(current: Int) {
+            val cx = current % tileWidth
+            val cy = current / tileWidth
+            val parent = parents[current]
+
+            if (parent < 0 || penalty(current) != 1 || penalty(parent) != 1) { // Weighted A* step in every direction
+                for (dir in 0 until 8) {
+                    val x = cx + dx[dir]
+                    val y = cy + dy[dir]
+                    if (!free(x, y)) continue
+                    val cell = x + y * tileWidth
+                    relax(cell, current, g[current] + penalty(cell) * (if (dir % 2 == 1) SQRT2 else 1f))
+                }
+                return
+            }
+
+            val px = (cx - parent % tileWidth).sign
+            val py = (cy - parent / tileWidth).sign
+            if (px != 0 && py != 0) {
+                tryJump(current, cx, cy, px, 0)
+                tryJump(current, cx, cy, 0, py)
+                tryJump(current, cx, cy, px, py)
+                if (!free(cx - px, cy) && free(cx - px, cy + py)) tryJump(current, cx, cy, -px, py)
+                if (!free(cx, cy - py) && free(cx + px, cy - py)) tryJump(current, cx, cy, px, -py)
+            } else if (px != 0) {
+                tryJump(current, cx, cy, px, 0)
+                if (!free(cx, cy + 1) && free(cx + px, cy + 1)) tryJump(current, cx, cy, px, 1)
+                if (!free(cx, cy - 1) && free(cx + px, cy - 1)) tryJump(current, cx, cy, px, -1)
+            } else {
+                tryJump(current, cx, cy, 0, py)
+                if (!free(cx + 1, cy) && free(cx + 1, cy + py)) tryJump(current, cx, cy, 1, py)
+                if (!free(cx - 1, cy) && free(cx - 1, cy + py)) tryJump(current, cx, cy, -1, py)
+            }
+        }
+
+        private fun tryJump(current: Int, cx: Int, cy: Int, dx: Int, dy: Int) {
+            val cell = jump(cx, cy, dx, dy)
+            if (cell == -1) return
+            val steps = max(abs(cell % tileWidth - cx), abs(cell / tileWidth - cy))
+            val step = if (dx != 0 && dy != 0) SQRT2 else 1f
+            relax(cell, current, g[current] + step * (steps - 1 + penalty(cell))) // Every tile but the last costs 1
+        }
+
+        private fun search(start: Int): Boolean {
+            seen[start] = generation
+            parents[start] = -1
+            g[start] = 0f
+            open.clear()
+            open.forget(start)
+            open.add(start, 0f)
+            while (open.size > 0) {
+                val current = open.pop()
+                expanded++
+                if (current == end) return true
+                if ((expanded and 255) == 0 && NavigationScheduler.cancelled()) return false // Nobody wants this path anymore
+                expand(current)
+            }
+            return false
+        }
+
+        private fun nextGeneration() {
+            if (++generation == Int.MAX_VALUE) { // Stamps would become ambiguous, start over
+                seen.fill(0)
+                checked.fill(0)
+                allowed.fill(0)
+                generation = 1
+            }
+        }
+
+        fun findPath(
+            start: Vec2,
+            end: Vec2,
+            danger: DangerField,
+            width: Float,
+            height: Float,
+            blocked: Int2P,
+            terrain: SolidPred?
+        ): Array<PositionWaypoint> {
+            tileWidth = ceil(width / tilesize).toInt() + 1
+            tileHeight = ceil(height / tilesize).toInt() + 1
+
+            start.clamp(0f, 0f, height, width)
+            end.clamp(0f, 0f, height, width)
+
+            val startX = World.toTile(start.x).coerceIn(0, tileWidth - 1)
+            val startY = World.toTile(start.y).coerceIn(0, tileHeight - 1)
+            endX = World.toTile(end.x).coerceIn(0, tileWidth - 1)
+            endY = World.toTile(end.y).coerceIn(0, tileHeight - 1)
+            this.end = endX + endY * tileWidth
+            this.blocked = blocked
+
+            val size = tileWidth * tileHeight
+            if (seen.size != size) {
+                seen = IntArray(size)
+                parents = IntArray(size)
+                g = FloatArray(size)
+                checked = IntArray(size)
+                solid = BooleanArray(size)
+                allowed = IntArray(((tileWidth + ClusterMap.SIZE - 1) / ClusterMap.SIZE) * ((tileHeight + ClusterMap.SIZE - 1) / ClusterMap.SIZE))
+                open.resize(size)
+                generation = 0
+            }
+            nextGeneration()
+            query = generation
+            expanded = 0
+            this.danger = danger
+
+            val startCell = startX + startY * tileWidth
+            restricted = false
+            if (terrain != null) {
+                val map = clusterMap(tileWidth, tileHeight, terrain)
+                val clusterPenalty = { cluster: Int -> // Clusters and danger chunks line up, charge the share of covered tiles
+                    val x = cluster % map.clustersX
+                    val y = cluster / map.clustersX
+                    if (x >= danger.chunksX || y * danger.chunksX >= danger.chunks) 1f
+                    else 1f + DangerField.PENALTY * danger.covered(x + y * danger.chunksX) / (ClusterMap.SIZE * ClusterMap.SIZE).toFloat()
+                }
+                if (!map.corridor(startX, startY, endX, endY, allowed, generation, clusterPenalty)) return emptyArray()
+                restricted = true
+            }
+
+            var found = search(startCell)
+            if (!found && restricted && !NavigationScheduler.cancelled()) { // Something blocks the corridor that the terrain doesn't know about, search everything
+                nextGeneration()
+                restricted = false
+                found = search(startCell)
+            }
+            if (!found || parents[this.end] < 0) return emptyArray()
+
+            // Every tile between consecutive jump points is part of the path, same as the points of a plain A* search
+            var length = 0
+            var cell = this.end
+            while (parents[cell] >= 0) {
+                val parent = parents[cell]
+                length += max(abs(cell % tileWidth - parent % tileWidth), abs(cell / tileWidth - parent / tileWidth))
+                cell = parent
+            }
+            val points = synchronized(pool) { Array(length) { pool.obtain() } }
+            var i = length
+            cell = this.end
+            while (parents[cell] >= 0) {
+                val parent = parents[cell]
+                var x = cell % tileWidth
+                var y = cell / tileWidth
+                val stepX = (parent % tileWidth - x).sign
+                val stepY = (parent / tileWidth - y).sign
+                while (x + y * tileWidth != parent) {
+                    x += stepX
+                    y += stepY
+                    points[--i].set(World.unconv(x.toFloat()), World.unconv(y.toFloat()))
+                }
+                cell = parent
+            }
+            return points
+        }
+    }
+}
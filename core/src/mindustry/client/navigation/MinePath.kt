@@ -6,6 +6,7 @@ import arc.struct.*
 import arc.util.*
 import mindustry.Vars.*
 import mindustry.client.utils.*
+import mindustry.content.*
 import mindustry.gen.*
 import mindustry.type.*
 
@@ -81,7 +82,9 @@ class MinePath @JvmOverloads constructor(val items: Seq<Item> = player.unit().ty
 
         // mine
         } else {
-            val tile = indexer.findClosestOre(player.unit(), item) // FINISHME: Ignore blocked tiles
+            val danger = Navigation.danger // Prefer ores out of turret range, mine in range if there is nothing else
+            val tile = indexer.findClosestOre(player.x, player.y, item) { it.block() == Blocks.air && danger.penalty(it.x.toInt(), it.y.toInt()) == 1 }
+                ?: indexer.findClosestOre(player.unit(), item)
             if (player.unit().validMine(tile) || tile == null) player.unit().mineTile = tile
             if (tile == null) return
             player.boosting = player.unit().type.canBoost && !player.within(tile, tilesize * 3F)
@@ -6,7 +6,6 @@ import arc.struct.*
 import mindustry.*
 import mindustry.client.navigation.Path.Companion.goTo
 import mindustry.client.navigation.clientThread.post
-import mindustry.client.navigation.clientThread.submit
 import mindustry.client.navigation.waypoints.*
 import mindustry.game.EventType.*
 import java.util.concurrent.*
@@ -19,17 +18,32 @@ object Navigation {
 
     @JvmField var recordedPath: WaypointPath<Waypoint>? = null
 
-    private val ents = ObjectSet<TurretPathfindingEntity>()
-    private var obstacleTree = EntityTree(Rect(0f, 0f, 0f, 0f))
-    private var tmpTree = EntityTree(Rect(0f, 0f, 0f, 0f))
-    private var obstacles = Seq<TurretPathfindingEntity>()
+    private val ents = ObjectSet<TurretPathfindingEntity>() // Client thread only
+    /** The latest obstacles, replaced as a whole by the client thread and never modified once published. */
+    private val snapshot = AtomicReference(ObstacleIndex.empty)
     lateinit var navigator: Navigator
+    /** Turret penalties shared by the navigators, kept up to date by [Navigator.navigate]. */
+    @JvmField var danger = DangerField(0, 0)
 
     init {
         Events.on(WorldLoadEvent::class.java) {
-            obstacleTree = EntityTree(Vars.world.getQuadBounds(Rect()))
-            tmpTree = EntityTree(Vars.world.getQuadBounds(Rect()))
+            snapshot.set(ObstacleIndex.empty)
+            job = CompletableFuture.completedFuture(null) // The client thread restarts and drops its queue
             ents.shrink(51)
+            danger = DangerField(Vars.world.width(), Vars.world.height())
+        }
+    }
+
+    /** Whether [navigator] is the one that is selected. */
+    @JvmStatic fun isSelected(navigator: Navigator) = this::navigator.isInitialized && this.navigator === navigator
+
+    /** Picks the navigator from the settings, repeated navigation to one place is incremental if that is enabled. */
+    @JvmStatic
+    fun selectNavigator() {
+        navigator = when {
+            Core.settings.getBool("incrementalnav") -> DStarLiteNavigator
+            Core.settings.getBool("jumppointnav") -> JumpPointNavigator
+            else -> AStarNavigator
         }
     }
 
@@ -45,59 +59,39 @@ object Navigation {
         Path.repeat = repeat
     }
 
-    private var job = CompletableFuture.completedFuture<Seq<TurretPathfindingEntity>>(null)
-    private var updatingEnts = AtomicInteger(0)
-    private var lastFrame = 0L
-
-    /** Client thread only */
-    private fun updateEnts(force: Boolean = false): Seq<TurretPathfindingEntity> {
-        if ((force || updatingEnts.get() <= 0) && Core.graphics.frameId > lastFrame) { // Update once per frame
-            lastFrame = Core.graphics.frameId
-            val tree = tmpTree
-            tree.clear()
-            obstacles = Seq()
-            for (ent in ents) {
-                if (ent.entity.team() != Vars.player.team()) {
-                    tree.insert(ent)
-                    obstacles.add(ent)
-                }
-            }
-            tmpTree = obstacleTree
-            obstacleTree = tree
+    private var job: CompletableFuture<Void> = CompletableFuture.completedFuture(null)
+    /** Set while the followed path is updated, path requests made meanwhile are planned before background ones. */
+    @JvmStatic var updatingFollowed = false
+        private set
+
+    /** Builds a new index from the current entities and publishes it, client thread only. */
+    private fun publish() {
+        val obstacles = Seq<TurretPathfindingEntity>()
+        for (ent in ents) {
+            if (ent.entity.team() != Vars.player.team()) obstacles.add(ent)
         }
-        return obstacles
+        snapshot.set(ObstacleIndex(obstacles, Vars.world.unitWidth().toFloat(), Vars.world.unitHeight().toFloat()))
     }
 
+    /** Thread safe, never blocks. The returned seq must not be modified. */
     @JvmStatic
-    /** Thread safe */
-    fun getEnts(): Seq<TurretPathfindingEntity> {
-        if (Thread.currentThread().name == "main") {
-            if (updatingEnts.get() <= 0) submit(::updateEnts).get()
-            updatingEnts.set(2)
-        } else updateEnts()
-        return obstacles
-    }
+    fun getEnts(): Seq<TurretPathfindingEntity> = snapshot.get().obstacles
 
-    /** Thread safe */
+    /** Thread safe, never blocks. */
     @JvmStatic
-    fun getTree(): EntityTree {
-        if (Thread.currentThread().name == "main") {
-            if (updatingEnts.get() <= 0) submit(::updateEnts).get()
-            updatingEnts.set(2)
-        } else updateEnts()
-        return obstacleTree
-    }
+    fun getTree(): ObstacleIndex = snapshot.get()
 
     fun update() {
-        if (job.isDone && updatingEnts.get() > 0) {
-            if (updatingEnts.get() == 1) obstacles.set(job.get())
-            job = submit { updateEnts(true) }
-            updatingEnts.decrementAndGet()
-        }
+        if (job.isDone) job = post(::publish) // At most one rebuild in flight, readers keep the previous index meanwhile
 
         if (!isPaused && !Vars.state.isPaused) {
             currentlyFollowing?.run {
-                follow()
+                updatingFollowed = true
+                try {
+                    follow()
+                } finally {
+                    updatingFollowed = false
+                }
                 if (isDone()) stopFollowing()
             }
         }
@@ -124,19 +118,19 @@ object Navigation {
 
     @JvmStatic
     fun navigateTo(drawX: Float, drawY: Float) {
-        goTo(drawX, drawY, 0f, 0f) {
+        goTo(drawX, drawY, 0f, 0f, {
             Core.app.post {
                 if (Core.settings.getBool("assumeunstrict")) return@post
                 follow(it)
                 navigateToInternal(drawX, drawY)
             }
-        }
+        }, NavigationScheduler.FOLLOWED)
     }
 
     private fun navigateToInternal(drawX: Float, drawY: Float) {
-        goTo(drawX, drawY, 0f, 0f) {
+        goTo(drawX, drawY, 0f, 0f, {
             if (currentlyFollowing == it && Core.settings.getBool("pathnav")) post { navigateToInternal(drawX, drawY) }
-        }
+        }, NavigationScheduler.FOLLOWED)
     }
 
     @JvmStatic
@@ -0,0 +1,148 @@
+package mindustry.client.navigation
+
+import arc.*
+import arc.math.geom.*
+import arc.util.*
+import arc.util.pooling.*
+import mindustry.*
+import mindustry.client.navigation.waypoints.*
+import mindustry.core.*
+import mindustry.game.EventType.*
+import java.util.concurrent.*
+import java.util.concurrent.atomic.*
+
+/**
+ * Runs path searches on a small pool of worker threads that outlives world loads, unlike [clientThread]. Requests for
+ * the tile that is already being planned for share the same future, the path being followed jumps ahead of background
+ * requests and cancelling a request's future makes the navigators give up within a few hundred expansions instead of
+ * finishing a search nobody wants anymore.
+ */
+object NavigationScheduler {
+    const val FOLLOWED = 0
+    const val BACKGROUND = 1
+
+    private val sequence = AtomicLong()
+    private val requests = ConcurrentHashMap<Int, Request>() // Unfinished requests by destination tile
+    private val current = ThreadLocal<Request?>()
+    private val pool = ThreadPoolExecutor(workers(), workers(), 0L, TimeUnit.MILLISECONDS, PriorityBlockingQueue()) { r ->
+        Thread(r, "Navigation Worker").apply { isDaemon = true }
+    }
+
+    @JvmField val stats = Stats()
+    /** The pool the navigators obtain waypoints from, it has to be locked whenever it is used off the client thread. */
+    @JvmField val waypointPool: Pool<PositionWaypoint> = Pools.get(PositionWaypoint::class.java) { PositionWaypoint() }
+
+    class Stats {
+        @JvmField val completed = AtomicInteger()
+        @JvmField val coalesced = AtomicInteger()
+        @JvmField val cancelled = AtomicInteger()
+        @Volatile var averageWait = 0f // Milliseconds spent in the queue, exponential moving average
+        @Volatile var averageRun = 0f // Milliseconds spent searching, exponential moving average
+        @Volatile var maxRun = 0L
+
+        @Synchronized
+        fun record(wait: Long, run: Long) {
+            completed.incrementAndGet()
+            averageWait += (wait - averageWait) * .1f
+            averageRun += (run - averageRun) * .1f
+            if (run > maxRun) maxRun = run
+        }
+
+        @Synchronized
+        fun reset() {
+            completed.set(0)
+            coalesced.set(0)
+            cancelled.set(0)
+            averageWait = 0f
+            averageRun = 0f
+            maxRun = 0
+        }
+    }
+
+    private class Request(val tile: Int, @Volatile var priority: Int, val task: () -> Array<PositionWaypoint>) :
+        CompletableFuture<Array<PositionWaypoint>>(), Runnable, Comparable<Request> {
+        @Volatile var order = sequence.getAndIncrement()
+        val queued = Time.millis()
+        /** Everyone who asked for this path, repeated requests from the same caller aren't counted as coalesced. */
+        val callers = HashSet<Any>()
+
+        override fun compareTo(other: Request) = if (priority != other.priority) priority.compareTo(other.priority) else order.compareTo(other.order)
+
+        override fun run() {
+            if (isDone) return
+            val started = Time.millis()
+            current.set(this)
+            try {
+                val path = task()
+                if (!complete(path)) free(path) // Cancelled while searching, nobody will free the points
+                else stats.record(started - queued, Time.timeSinceMillis(started))
+            } catch (e: Throwable) {
+                Log.err(e)
+                completeExceptionally(e)
+            } finally {
+                current.remove()
+                requests.remove(tile, this)
+            }
+        }
+
+        override fun cancel(mayInterruptIfRunning: Boolean): Boolean {
+            val cancelled = super.cancel(mayInterruptIfRunning)
+            if (cancelled) {
+                stats.cancelled.incrementAndGet()
+                requests.remove(tile, this)
+                pool.remove(this)
+            }
+            return cancelled
+        }
+    }
+
+    init {
+        Events.on(WorldLoadEvent::class.java) { for (request in requests.values) request.cancel(true) }
+    }
+
+    private fun workers() = (OS.cores - 1).coerceIn(1, 3)
+
+    /**
+     * Plans a path to ([destX], [destY]) with [Navigator.navigate]. If a request for the same tile is still pending or
+     * running its future is returned instead of starting another search, it is moved up if [priority] is more urgent.
+     * Only the first request of every [caller] counts as coalesced. Completed paths are owned by the caller that started
+     * the search, who has to free the waypoints.
+     */
+    @JvmStatic @JvmOverloads
+    fun path(destX: Float, destY: Float, priority: Int, caller: Any? = null): CompletableFuture<Array<PositionWaypoint>> {
+        return submit(Point2.pack(World.toTile(destX), World.toTile(destY)), priority, caller) {
+            Navigation.navigator.navigate(Vec2(Vars.player.x, Vars.player.y), Vec2(destX, destY), Navigation.getEnts())
+        }
+    }
+
+    /** Runs [task] for [tile] unless a request for that tile is pending or running, see [path]. */
+    fun submit(tile: Int, priority: Int, caller: Any?, task: () -> Array<PositionWaypoint>): CompletableFuture<Array<PositionWaypoint>> {
+        var created: Request? = null
+        val request = requests.compute(tile) { _, existing ->
+            if (existing != null && !existing.isDone) existing
+            else Request(tile, priority, task).also { created = it }
+        }!!
+        val first = caller == null || synchronized(request.callers) { request.callers.add(caller) }
+        if (created != null) pool.execute(request)
+        else {
+            if (first) stats.coalesced.incrementAndGet()
+            if (priority < request.priority && pool.remove(request)) { // Requeue so that the queue sees the new priority
+                request.priority = priority
+                request.order = sequence.getAndIncrement()
+                pool.execute(request)
+            }
+        }
+        return request
+    }
+
+    /** Returns the points of a path to [waypointPool] under its lock. */
+    @JvmStatic
+    fun free(path: Array<PositionWaypoint>) = synchronized(waypointPool) { for (point in path) waypointPool.free(point) }
+
+    /** Whether the request the calling thread is working on was cancelled, checked by the navigators while searching. */
+    @JvmStatic
+    fun cancelled() = current.get()?.isCancelled ?: false
+
+    fun summary() = "[accent]Path requests: ${stats.completed} completed, ${stats.coalesced} coalesced, ${stats.cancelled} cancelled\n" +
+        "Average wait ${Strings.fixed(stats.averageWait, 1)}ms, average search ${Strings.fixed(stats.averageRun, 1)}ms, slowest ${stats.maxRun}ms"
+}
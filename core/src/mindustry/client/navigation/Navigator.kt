@@ -2,13 +2,12 @@ package mindustry.client.navigation
 
 import arc.*
 import arc.math.geom.*
-import arc.struct.*
 import arc.util.*
-import arc.util.pooling.*
 import mindustry.Vars.*
 import mindustry.client.navigation.waypoints.*
 import mindustry.client.utils.*
 import mindustry.content.*
+import mindustry.entities.EntityCollisions.*
 import mindustry.game.*
 import mindustry.gen.*
 
@@ -17,7 +16,6 @@ abstract class Navigator {
     @JvmField
     val map = HashMap<Int, Vec2>()
     var lastWp = 0L
-    private val realObstacles = Seq<Circle>() // Avoids creating new lists every time navigate is called
 
     init {
         Events.on(EventType.WorldLoadEvent::class.java) {
@@ -28,16 +26,21 @@ abstract class Navigator {
     abstract fun init()
 
     /**
-     * Finds a path between the start and end points provided an array of circular obstacles.
-     * May return null if no path is found.
+     * Finds a path between the start and end points avoiding the tiles covered by the [danger] field.
+     * [terrain] is the static solidity of the tiles [blocked] reports if known, navigators may precompute things from it.
+     * [blockedKey] changes whenever [blocked] reports differently for reasons other than changed tiles, navigators that
+     * cache solidity between calls throw it away then.
+     * Returns an empty array if no path is found.
      */
-    protected abstract fun findPath(
+    abstract fun findPath(
         start: Vec2,
         end: Vec2,
-        obstacles: Seq<Circle>,
+        danger: DangerField,
         width: Float,
         height: Float,
-        blocked: Int2P
+        blocked: Int2P,
+        terrain: SolidPred? = null,
+        blockedKey: Any? = null
     ): Array<PositionWaypoint>
 
     fun navigate(start: Vec2, end: Vec2, obstacles: Iterable<TurretPathfindingEntity>): Array<PositionWaypoint> {
@@ -45,30 +48,21 @@ abstract class Navigator {
         end.clamp(0f, 0f, world.unitHeight().toFloat(), world.unitWidth().toFloat())
         val additionalRadius = player.unit().hitSize / 2
 
-        if (player.unit().type.hittable(player.unit())) {
-            for (turret in obstacles) {
-                if (turret.canHitPlayer() && turret.canShoot()) {
-                    realObstacles.add(
-                        Pools.obtain(Circle::class.java) { Circle() }.set(
-                            turret.x(),
-                            turret.y(),
-                            turret.range + additionalRadius
-                        )
-                    )
+        // Only the sources that changed since the last call are restamped. Workers take turns reconciling, searches read
+        // the field without locking and at worst see a source half moved
+        val danger = Navigation.danger
+        synchronized(danger) {
+            danger.begin()
+            if (player.unit().type.hittable(player.unit())) {
+                for (turret in obstacles) {
+                    if (turret.canHitPlayer() && turret.canShoot()) danger.set(turret, turret.x(), turret.y(), turret.range + additionalRadius)
                 }
             }
-        }
 
-        if (state.hasSpawns()) {
-            for (spawn in spawner.spawns) {
-                realObstacles.add(
-                    Pools.obtain(Circle::class.java) { Circle() }.set(
-                        spawn.worldx(),
-                        spawn.worldy(),
-                        state.rules.dropZoneRadius + additionalRadius
-                    )
-                )
+            if (state.hasSpawns()) {
+                for (spawn in spawner.spawns) danger.set(spawn, spawn.worldx(), spawn.worldy(), state.rules.dropZoneRadius + additionalRadius)
             }
+            danger.end()
         }
 
         if (Time.timeSinceMillis(lastWp) > 3000) {
@@ -89,17 +83,16 @@ abstract class Navigator {
         }
 
         val avoidFlood = flood() && player.unit().type != UnitTypes.horizon
-        val ret = findPath(
-            start, end, realObstacles, world.unitWidth().toFloat(), world.unitHeight().toFloat()
-        ) { x, y ->
-            avoidFlood && world.tiles.getc(x, y).team() == Team.blue || player.unit().type != null && !player.unit().type.canBoost && player.unit().solidity()?.solid(x, y) ?: false
-        }
-        Pools.freeAll(realObstacles)
-        realObstacles.clear()
-        return ret
+        val terrain = if (player.unit().type != null && !player.unit().type.canBoost) player.unit().solidity() else null
+        val blockedKey = Pair(avoidFlood, player.unit().type)
+        return findPath(
+            start, end, danger, world.unitWidth().toFloat(), world.unitHeight().toFloat(), { x, y ->
+                avoidFlood && world.tiles.getc(x, y).team() == Team.blue || player.unit().type != null && !player.unit().type.canBoost && player.unit().solidity()?.solid(x, y) ?: false
+            }, terrain, blockedKey
+        )
     }
 
-    protected fun interface Int2P {
+    fun interface Int2P {
         operator fun invoke(x: Int, y: Int) : Boolean
     }
 }
\ No newline at end of file
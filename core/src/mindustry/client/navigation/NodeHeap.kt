@@ -0,0 +1,118 @@
+package mindustry.client.navigation
+
+/**
+ * Binary min heap of int nodes keyed by floats with an index from node to heap position, which makes decrease-key
+ * O(log n) without any node objects. Nodes are the indices of a grid of [capacity] cells, nothing is allocated once
+ * the arrays have grown to fit the search.
+ */
+class NodeHeap {
+    private var nodes = IntArray(1024)
+    private var keys = FloatArray(1024)
+    private var positions = IntArray(0) // Node -> position in nodes, -1 when it isn't in the heap
+    var size = 0
+        private set
+    val capacity get() = positions.size
+
+    /** Makes room for nodes below [capacity], the positions of every node are reset. */
+    fun resize(capacity: Int) {
+        if (positions.size != capacity) positions = IntArray(capacity)
+        positions.fill(-1)
+        size = 0
+    }
+
+    /** Marks [node] as not being in the heap, call this the first time a search touches a node instead of resetting the whole index. */
+    fun forget(node: Int) {
+        positions[node] = -1
+    }
+
+    operator fun contains(node: Int) = positions[node] != -1
+
+    /** Adds [node] or moves it if it is already in the heap. */
+    fun add(node: Int, key: Float) {
+        val position = positions[node]
+        if (position != -1) {
+            val old = keys[position]
+            keys[position] = key
+            if (key < old) up(position) else down(position)
+            return
+        }
+        if (size == nodes.size) {
+            nodes = nodes.copyOf(size * 2)
+            keys = keys.copyOf(size * 2)
+        }
+        nodes[size] = node
+        keys[size] = key
+        positions[node] = size
+        up(size++)
+    }
+
+    fun peekKey() = keys[0]
+
+    fun pop(): Int {
+        val node = nodes[0]
+        positions[node] = -1
+        if (--size > 0) {
+            nodes[0] = nodes[size]
+            keys[0] = keys[size]
+            positions[nodes[0]] = 0
+            down(0)
+        }
+        return node
+    }
+
+    /** Takes [node] out of the heap if it is in it. */
+    fun remove(node: Int) {
+        val position = positions[node]
+        if (position == -1) return
+        positions[node] = -1
+        if (position == --size) return
+        val key = keys[position]
+        place(nodes[size], keys[size], position)
+        if (keys[position] < key) up(position) else down(position)
+    }
+
+    fun clear() {
+        for (i in 0 until size) positions[nodes[i]] = -1
+        size = 0
+    }
+
+    private fun up(start: Int) {
+        var i = start
+        val node = nodes[i]
+        val key = keys[i]
+        while (i > 0) {
+            val parent = (i - 1) ushr 1
+            if (keys[parent] <= key) break
+            move(parent, i)
+            i = parent
+        }
+        place(node, key, i)
+    }
+
+    private fun down(start: Int) {
+        var i = start
+        val node = nodes[i]
+        val key = keys[i]
+        while (true) {
+            var child = i * 2 + 1
+            if (child >= size) break
+            if (child + 1 < size && keys[child + 1] < keys[child]) child++
+            if (keys[child] >= key) break
+            move(child, i)
+            i = child
+        }
+        place(node, key, i)
+    }
+
+    private fun move(from: Int, to: Int) {
+        nodes[to] = nodes[from]
+        keys[to] = keys[from]
+        positions[nodes[to]] = to
+    }
+
+    private fun place(node: Int, key: Float, i: Int) {
+        nodes[i] = node
+        keys[i] = key
+        positions[node] = i
+    }
+}
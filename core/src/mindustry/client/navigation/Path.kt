@@ -7,6 +7,7 @@ import arc.struct.*
 import arc.util.pooling.*
 import mindustry.*
 import mindustry.client.navigation.waypoints.*
+import mindustry.core.*
 import mindustry.game.*
 import java.util.concurrent.*
 
@@ -18,15 +19,30 @@ abstract class Path {
         @JvmField val v2 = Vec2()
         @JvmField val waypoints = WaypointPath<PositionWaypoint>() // FINISHME: Use this in all paths
         private val filter = Seq<PositionWaypoint>()
-        private var job: CompletableFuture<Array<PositionWaypoint>> = CompletableFuture.completedFuture(emptyArray())
+        private val jobs = IntMap<Job>() // Searches in flight by destination tile
         private val targetPos = Vec2(-1F, -1F)
+        private var submitted = 0
+        private var applied = -1 // Order of the search the waypoints came from, older searches never replace them
         val listeners = Seq<Runnable>()
         @JvmField var repeat = false
 
+        /** A search started by [goTo], [filtered] completes once its path has been put into [waypoints]. */
+        private class Job(val order: Int, var priority: Int, val request: CompletableFuture<Array<PositionWaypoint>>) {
+            lateinit var filtered: CompletableFuture<Void>
+        }
+
         init {
-            Events.on(EventType.WorldLoadEvent::class.java) { job = CompletableFuture.completedFuture(emptyArray()) }
+            Events.on(EventType.WorldLoadEvent::class.java) {
+                synchronized(this) { // The scheduler cancels the searches themselves
+                    jobs.clear()
+                    applied = -1
+                }
+            }
         }
 
+        /** Paths other than waypoint paths use paths to where a moving target was, so their searches are left to finish. */
+        private fun keepsStale() = Navigation.currentlyFollowing != null && Navigation.currentlyFollowing !is WaypointPath<*>
+
         @JvmOverloads @JvmStatic
         fun goTo(dest: Position?, dist: Float = 0F, aStarDist: Float = 0F): WaypointPath<PositionWaypoint> {
             if (dest != null) goTo(dest.x, dest.y, dist, aStarDist)
@@ -34,29 +50,37 @@ abstract class Path {
         }
 
         @JvmOverloads @JvmStatic @Synchronized
-        fun goTo(destX: Float, destY: Float, dist: Float = 0F, aStarDist: Float = 0F, cons: Cons<WaypointPath<PositionWaypoint>>? = null): WaypointPath<PositionWaypoint> {
+        fun goTo(destX: Float, destY: Float, dist: Float = 0F, aStarDist: Float = 0F, cons: Cons<WaypointPath<PositionWaypoint>>? = null,
+                 priority: Int = if (Navigation.updatingFollowed) NavigationScheduler.FOLLOWED else NavigationScheduler.BACKGROUND): WaypointPath<PositionWaypoint> {
             if (Core.settings.getBool("pathnav") && !Core.settings.getBool("assumeunstrict") && (aStarDist == 0F || Vars.player.dst(destX, destY) > aStarDist)) {
-                if (!targetPos.within(destX, destY, 1f)) job.cancel(true)
+                val tile = Point2.pack(World.toTile(destX), World.toTile(destY))
                 targetPos.set(destX, destY)
-                if (job.isDone) {
-                    job = clientThread.submit {
-                        val path = Navigation.navigator.navigate(v1.set(Vars.player), v2.set(destX, destY), Navigation.getEnts())
-                        Pools.freeAll(filter)
-                        filter.clear()
-                        if (targetPos.within(destX, destY, 1F) || (Navigation.currentlyFollowing != null && Navigation.currentlyFollowing !is WaypointPath<*>)) { // Same destination
-                            filter.addAll(*path).removeAll { (it.dst(destX, destY) < dist).apply { if (this) Pools.free(it) } }
-
-                            while (filter.size > 1 && filter.min(Vars.player::dst) != filter.first()) Pools.free(filter.remove(0))
-                            if (filter.size > 1 || (filter.any() && filter.first().dst(Vars.player) < Vars.tilesize)) Pools.free(filter.remove(0))
-                            if (filter.size > 1 && Vars.player.unit().isFlying) Pools.free(filter.remove(0)) // Ground units can't properly turn corners if we remove 2 waypoints.
-                            waypoints.set(filter)
-                        } else { // Different destination, this is needed to prevent issues when starting a path at the end of the last one
-                            waypoints.clear().add(waypoint.set(-1F, -1F))
-                        }
-                        cons?.get(waypoints)
-                        path
+                // Searches for other tiles are cancelled, unless stale paths are useful in which case the oldest one is left to finish
+                val current = jobs[tile]
+                val oldest = if (keepsStale()) jobs.values().filter { it !== current }.minByOrNull { it.order } else null
+                for (other in jobs.keys().toArray().toArray()) {
+                    val job = jobs[other]
+                    if (other != tile && job !== oldest) {
+                        job.request.cancel(true)
+                        jobs.remove(other)
                     }
                 }
+
+                var job = jobs[tile]
+                if (job == null) {
+                    val request = NavigationScheduler.path(destX, destY, priority, this)
+                    val order = submitted++
+                    job = Job(order, priority, request)
+                    job.filtered = request.thenAccept { path -> filter(path, tile, order, dist, destX, destY) }
+                    jobs.put(tile, job)
+                    val started = job
+                    request.whenComplete { _, _ -> synchronized(this) { if (jobs[tile] === started) jobs.remove(tile) } }
+                } else if (priority < job.priority) { // Moves the search up, the scheduler doesn't count a caller twice
+                    job.priority = priority
+                    NavigationScheduler.path(destX, destY, priority, this)
+                }
+                // Every caller gets its callback, also when its request was merged into one that was already running
+                if (cons != null) job.filtered.thenRun { synchronized(this) { cons.get(waypoints) } }
             } else { // Not navigating
                 waypoints.set(waypoint.set(destX, destY, 1F, dist).run())
                 cons?.get(waypoints)
@@ -65,6 +89,30 @@ abstract class Path {
             waypoints.follow()
             return waypoints
         }
+
+        /** Puts the completed [path] of search [order] into [waypoints], this runs on the worker that completed it. */
+        private fun filter(path: Array<PositionWaypoint>, tile: Int, order: Int, dist: Float, destX: Float, destY: Float) = synchronized(this) {
+            synchronized(NavigationScheduler.waypointPool) { // Also guards filter
+                if (order < applied) { // A newer path is already being followed
+                    NavigationScheduler.free(path)
+                    return@synchronized
+                }
+                applied = order
+                Pools.freeAll(filter)
+                filter.clear()
+                if (Point2.pack(World.toTile(targetPos.x), World.toTile(targetPos.y)) == tile || keepsStale()) { // Same destination
+                    filter.addAll(*path).removeAll { (it.dst(destX, destY) < dist).apply { if (this) Pools.free(it) } }
+
+                    while (filter.size > 1 && filter.min(Vars.player::dst) != filter.first()) Pools.free(filter.remove(0))
+                    if (filter.size > 1 || (filter.any() && filter.first().dst(Vars.player) < Vars.tilesize)) Pools.free(filter.remove(0))
+                    if (filter.size > 1 && Vars.player.unit().isFlying) Pools.free(filter.remove(0)) // Ground units can't properly turn corners if we remove 2 waypoints.
+                    waypoints.set(filter)
+                } else { // Different destination, this is needed to prevent issues when starting a path at the end of the last one
+                    NavigationScheduler.free(path)
+                    waypoints.clear().add(waypoint.set(-1F, -1F))
+                }
+            }
+        }
     }
 
     open fun init() {
@@ -0,0 +1,167 @@
+package mindustry.client.navigation
+
+import arc.math.*
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.*
+import mindustry.Vars.*
+import mindustry.entities.units.*
+
+/**
+ * Orders build plans so that the builder travels as little as possible. Plans are grouped into [CLUSTER] tile squares
+ * and the clusters are visited along a route that is kept between calls: clusters that are gone are dropped, new ones
+ * are put where they lengthen the route the least and whatever is left of the [budget] goes into 2-opt passes. A
+ * schematic with thousands of plans therefore settles into a short route over a few calls instead of being solved in
+ * one. Plans within a cluster are taken nearest first. [weight] makes travelling to some clusters (like the ones in
+ * turret range) more expensive.
+ */
+class PlanScheduler @JvmOverloads constructor(
+    private val weight: ClusterWeight = ClusterWeight { _, _ -> 1f },
+    private val budget: Long = 2_000_000L // Nanoseconds per call
+) {
+    companion object {
+        const val CLUSTER = 8
+    }
+
+    fun interface ClusterWeight {
+        /** Travel cost multiplier of the cluster with the given cluster coordinates, at least 1. */
+        fun get(x: Int, y: Int): Float
+    }
+
+    private val groups = IntMap<Seq<BuildPlan>>() // Cluster -> its plans in the current call
+    private val spare = Seq<Seq<BuildPlan>>()
+    private var route = IntSeq() // Clusters in visiting order
+    private var next = IntSeq()
+    private val routed = IntSet()
+    private var startX = 0f // Builder position in tiles
+    private var startY = 0f
+    private var i = 0 // 2-opt position, carried over between calls
+    private var j = 1
+
+    /** Adds up to [limit] of the [plans] to [out] in the order they should be built when starting at ([x], [y]). */
+    fun order(plans: Seq<BuildPlan>, x: Float, y: Float, limit: Int, out: Seq<BuildPlan>) {
+        val deadline = Time.nanos() + budget
+        startX = x / tilesize
+        startY = y / tilesize
+
+        for (group in groups.values()) {
+            group.clear()
+            spare.add(group)
+        }
+        groups.clear()
+        for (plan in plans) {
+            val key = Point2.pack(plan.x / CLUSTER, plan.y / CLUSTER)
+            val group = groups[key] ?: (if (spare.isEmpty) Seq<BuildPlan>() else spare.pop()).also { groups.put(key, it) }
+            group.add(plan)
+        }
+
+        // Keep the order of the clusters that are still there
+        next.clear()
+        routed.clear()
+        for (k in 0 until route.size) {
+            if (groups.containsKey(route.items[k])) {
+                next.add(route.items[k])
+                routed.add(route.items[k])
+            }
+        }
+        val swap = route
+        route = next
+        next = swap
+
+        // Insert the new clusters where they cost the least, the ones that don't fit in the budget go last for now
+        val keys = groups.keys()
+        while (keys.hasNext) {
+            val key = keys.next()
+            if (routed.contains(key)) continue
+            if (Time.nanos() < deadline) insert(key) else route.add(key)
+        }
+
+        improve(deadline)
+
+        // Within a cluster take the nearest plan first
+        var px = startX
+        var py = startY
+        for (k in 0 until route.size) {
+            val group = groups[route.items[k]]
+            while (group.any() && out.size < limit) {
+                var best = 0
+                for (p in 1 until group.size) {
+                    if (Mathf.dst2(px, py, group.items[p].x.toFloat(), group.items[p].y.toFloat()) < Mathf.dst2(px, py, group.items[best].x.toFloat(), group.items[best].y.toFloat())) best = p
+                }
+                val plan = group.remove(best)
+                out.add(plan)
+                px = plan.x.toFloat()
+                py = plan.y.toFloat()
+            }
+            if (out.size >= limit) break
+        }
+    }
+
+    private fun cx(key: Int) = Point2.x(key) * CLUSTER + CLUSTER / 2f
+
+    private fun cy(key: Int) = Point2.y(key) * CLUSTER + CLUSTER / 2f
+
+    /** Cost of travelling between two clusters, the mean of their weights times the distance so that it is symmetric. */
+    private fun cost(a: Int, b: Int) = Mathf.dst(cx(a), cy(a), cx(b), cy(b)) * (weightOf(a) + weightOf(b)) / 2f
+
+    /** Cost of travelling from the builder to a cluster. */
+    private fun start(b: Int) = Mathf.dst(startX, startY, cx(b), cy(b)) * (1f + weightOf(b)) / 2f
+
+    private fun weightOf(key: Int) = weight.get(Point2.x(key).toInt(), Point2.y(key).toInt())
+
+    /** Cost of the edge from position [from] to [to] of the route, the builder is at position -1. */
+    private fun edge(from: Int, to: Int) = if (from < 0) start(route.items[to]) else cost(route.items[from], route.items[to])
+
+    private fun insert(key: Int) {
+        var best = 0
+        var bestCost = Float.MAX_VALUE
+        for (k in 0..route.size) {
+            val before = if (k == 0) start(key) else cost(route.items[k - 1], key)
+            val delta = if (k == route.size) before else before + cost(key, route.items[k]) - edge(k - 1, k)
+            if (delta < bestCost) {
+                best = k
+                bestCost = delta
+            }
+        }
+        route.insert(best, key)
+    }
+
+    /** Reverses parts of the route while that makes it shorter, until there is nothing left to gain or time runs out. */
+    private fun improve(deadline: Long) {
+        val n = route.size
+        if (n < 2) return
+        if (i >= n - 1 || j >= n) {
+            i = 0
+            j = 1
+        }
+        var unchanged = 0 // Pairs looked at since the last improvement, a whole round of them means the route is done
+        val pairs = n * (n - 1) / 2
+        var checks = 0
+        while (unchanged < pairs) {
+            if ((++checks and 63) == 0 && Time.nanos() >= deadline) return
+            // Reversing positions i..j replaces the edges (i - 1, i) and (j, j + 1) with (i - 1, j) and (i, j + 1)
+            val before = edge(i - 1, i) + (if (j + 1 < n) cost(route.items[j], route.items[j + 1]) else 0f)
+            val after = (if (i == 0) start(route.items[j]) else cost(route.items[i - 1], route.items[j])) + (if (j + 1 < n) cost(route.items[i], route.items[j + 1]) else 0f)
+            if (after < before - 0.01f) {
+                route.reverse(i, j)
+                unchanged = 0
+            } else {
+                unchanged++
+            }
+            if (++j >= n) {
+                if (++i >= n - 1) i = 0
+                j = i + 1
+            }
+        }
+    }
+
+    private fun IntSeq.reverse(from: Int, to: Int) {
+        var a = from
+        var b = to
+        while (a < b) {
+            val tmp = items[a]
+            items[a++] = items[b]
+            items[b--] = tmp
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package mindustry.client.navigation
+
+import arc.struct.*
+import mindustry.Vars.*
+import mindustry.core.*
+import kotlin.math.*
+
+/**
+ * Tiles within range of enemy turrets for [BuildPath], kept as one bit per tile in rows of longs for the turrets that
+ * hit ground units and for the ones that can hit the player. Every tile counts the turrets covering it and a turret
+ * only adds or removes its footprint when it appears, goes away, moves to another tile or changes what it can hit, so
+ * reading the masks is always current and updating them costs nothing while nothing changes. Callers describe the
+ * current turrets between [begin] and [end] like they do for the [DangerField].
+ */
+class TurretMask(val width: Int, val height: Int) {
+    companion object {
+        private const val GROUND = 0
+        private const val PLAYER = 1
+    }
+
+    private class Stamp(var x: Float, var y: Float, var radius: Float, var ground: Boolean, var player: Boolean, var generation: Int)
+
+    private val stride = (width + 63) ushr 6
+    private val counts = Array(2) { IntArray(width * height) }
+    private val words = Array(2) { LongArray(stride * height) } // Bit x % 64 of word x / 64 + y * stride is set when counts[x + y * width] != 0
+    private val stamps = ObjectMap<Any, Stamp>()
+    private var generation = 0
+
+    /** Whether a turret that hits ground units covers the tile. */
+    fun ground(x: Int, y: Int) = get(GROUND, x, y)
+
+    /** Whether a turret that can hit the player covers the tile. */
+    fun player(x: Int, y: Int) = get(PLAYER, x, y)
+
+    private fun get(layer: Int, x: Int, y: Int) =
+        x in 0 until width && y in 0 until height && ((words[layer][(x ushr 6) + y * stride] ushr (x and 63)) and 1L) != 0L
+
+    fun begin() {
+        generation++
+    }
+
+    /** Declares that [key] covers the tiles within [radius] world units of ([x], [y]), this is O(1) unless it changed. */
+    fun set(key: Any, x: Float, y: Float, radius: Float, ground: Boolean, player: Boolean) {
+        val stamp = stamps[key]
+        if (stamp == null) {
+            stamps.put(key, Stamp(x, y, radius, ground, player, generation).also { stamp(it, 1) })
+            return
+        }
+        stamp.generation = generation
+        if (World.toTile(stamp.x) == World.toTile(x) && World.toTile(stamp.y) == World.toTile(y) && stamp.radius == radius && stamp.ground == ground && stamp.player == player) return
+        stamp(stamp, -1)
+        stamp.x = x
+        stamp.y = y
+        stamp.radius = radius
+        stamp.ground = ground
+        stamp.player = player
+        stamp(stamp, 1)
+    }
+
+    /** Removes every turret that wasn't [set] since [begin]. */
+    fun end() {
+        val entries = stamps.values()
+        while (entries.hasNext()) {
+            val stamp = entries.next()
+            if (stamp.generation == generation) continue
+            stamp(stamp, -1)
+            entries.remove()
+        }
+    }
+
+    /** Adds [delta] to the tiles whose positions are within the circle, row by row. */
+    private fun stamp(stamp: Stamp, delta: Int) {
+        if (!stamp.ground && !stamp.player || stamp.radius < 0) return
+        val radius2 = stamp.radius * stamp.radius
+        for (y in ceil((stamp.y - stamp.radius) / tilesize).toInt().coerceAtLeast(0)..floor((stamp.y + stamp.radius) / tilesize).toInt().coerceAtMost(height - 1)) {
+            val dy = y * tilesize - stamp.y
+            val half = sqrt(max(radius2 - dy * dy, 0f))
+            val x0 = ceil((stamp.x - half) / tilesize).toInt().coerceAtLeast(0)
+            val x1 = floor((stamp.x + half) / tilesize).toInt().coerceAtMost(width - 1)
+            if (x0 > x1) continue
+            if (stamp.ground) span(GROUND, y, x0, x1, delta)
+            if (stamp.player) span(PLAYER, y, x0, x1, delta)
+        }
+    }
+
+    /** Adds [delta] to the counts of a row span, the bits of each word are flipped in one go. */
+    private fun span(layer: Int, y: Int, x0: Int, x1: Int, delta: Int) {
+        val counts = counts[layer]
+        val words = words[layer]
+        var x = x0
+        while (x <= x1) {
+            val last = min(x1, x or 63)
+            var flips = 0L
+            for (i in x..last) {
+                val index = i + y * width
+                val old = counts[index]
+                counts[index] = old + delta
+                if ((old == 0) != (old + delta == 0)) flips = flips or (1L shl (i and 63))
+            }
+            words[(x ushr 6) + y * stride] = words[(x ushr 6) + y * stride] xor flips
+            x = last + 1
+        }
+    }
+}
@@ -2,16 +2,12 @@ package mindustry.client.navigation
 
 import arc.func.*
 import arc.math.geom.*
-import arc.math.geom.QuadTree.*
 import arc.struct.*
 import mindustry.*
 import mindustry.Vars.*
 import mindustry.gen.*
-import mindustry.logic.*
-import java.util.concurrent.locks.*
-import kotlin.concurrent.*
 
-class TurretPathfindingEntity(@JvmField val entity: Ranged, @JvmField var range: Float, @JvmField val targetGround: Boolean, @JvmField val targetAir: Boolean, private val canShoot: Boolp) : QuadTreeObject {
+class TurretPathfindingEntity(@JvmField val entity: Ranged, @JvmField var range: Float, @JvmField val targetGround: Boolean, @JvmField val targetAir: Boolean, private val canShoot: Boolp) {
     var id = 0L
 
     fun canShoot() = canShoot.get()
@@ -37,7 +33,7 @@ class TurretPathfindingEntity(@JvmField val entity: Ranged, @JvmField var range:
         return java.lang.Long.hashCode(id)
     }
 
-    override fun hitbox(out: Rect) {
+    fun hitbox(out: Rect) {
         out.setCentered(entity.x, entity.y, (range - Vars.tilesize) * 2)
     }
 
@@ -67,45 +63,85 @@ class TurretPathfindingEntity(@JvmField val entity: Ranged, @JvmField var range:
     }
 }
 
-// FINISHME: Awful.
-class EntityTree(bounds: Rect) : QuadTree<TurretPathfindingEntity>(bounds) {
+/**
+ * Immutable spatial index over a snapshot of the [obstacles]. Their hitboxes are captured when the index is built and
+ * bucketed into a uniform grid, nothing is ever written afterwards so any number of threads can query it without
+ * locking. [Navigation] publishes a fresh index every frame instead of mutating the one readers hold.
+ */
+class ObstacleIndex(
+    /** The indexed obstacles, must not be modified. */
+    @JvmField val obstacles: Seq<TurretPathfindingEntity>,
+    width: Float,
+    height: Float
+) {
     companion object {
-        val lock = ReentrantLock(true)
+        private const val CELL = 16 * Vars.tilesize.toFloat()
+        @JvmField val empty = ObstacleIndex(Seq(0), 0f, 0f)
     }
 
-    override fun insert(obj: TurretPathfindingEntity?) {
-        lock.withLock {
-            super.insert(obj)
-        }
-    }
+    private val cellsX = (width / CELL).toInt() + 1
+    private val cellsY = (height / CELL).toInt() + 1
+    private val minX = FloatArray(obstacles.size)
+    private val minY = FloatArray(obstacles.size)
+    private val maxX = FloatArray(obstacles.size)
+    private val maxY = FloatArray(obstacles.size)
+    private val starts = IntArray(cellsX * cellsY + 1) // Items of cell i are items[starts[i] until starts[i + 1]]
+    private val items: IntArray
 
-    override fun intersect(x: Float, y: Float, width: Float, height: Float, out: Cons<TurretPathfindingEntity>?) {
-        lock.withLock {
-            super.intersect(x, y, width, height, out)
+    init {
+        val rect = Rect()
+        for (i in 0 until obstacles.size) {
+            obstacles.items[i].hitbox(rect)
+            minX[i] = rect.x
+            minY[i] = rect.y
+            maxX[i] = rect.x + rect.width
+            maxY[i] = rect.y + rect.height
         }
+        for (i in 0 until obstacles.size) each(i) { starts[it + 1]++ }
+        for (i in 1 until starts.size) starts[i] += starts[i - 1]
+        items = IntArray(starts.last())
+        val fill = starts.copyOf()
+        for (i in 0 until obstacles.size) each(i) { items[fill[it]++] = i }
     }
 
-    override fun intersect(x: Float, y: Float, width: Float, height: Float, out: Seq<TurretPathfindingEntity>?) {
-        lock.withLock {
-            super.intersect(x, y, width, height, out)
-        }
-    }
+    private fun cellX(x: Float) = (x / CELL).toInt().coerceIn(0, cellsX - 1)
 
-    override fun remove(obj: TurretPathfindingEntity?): Boolean {
-        lock.withLock {
-            return super.remove(obj)
-        }
+    private fun cellY(y: Float) = (y / CELL).toInt().coerceIn(0, cellsY - 1)
+
+    private inline fun each(i: Int, cons: (cell: Int) -> Unit) {
+        for (cx in cellX(minX[i])..cellX(maxX[i])) for (cy in cellY(minY[i])..cellY(maxY[i])) cons(cx + cy * cellsX)
     }
 
-    override fun getObjects(out: Seq<TurretPathfindingEntity>?) {
-        lock.withLock {
-            super.getObjects(out)
+    /** Calls [out] once for every obstacle whose hitbox overlaps the rectangle. */
+    fun intersect(x: Float, y: Float, width: Float, height: Float, out: Cons<TurretPathfindingEntity>) {
+        val x0 = cellX(x)
+        val y0 = cellY(y)
+        for (cx in x0..cellX(x + width)) {
+            for (cy in y0..cellY(y + height)) {
+                val cell = cx + cy * cellsX
+                for (j in starts[cell] until starts[cell + 1]) {
+                    val i = items[j]
+                    if (minX[i] > x + width || maxX[i] < x || minY[i] > y + height || maxY[i] < y) continue
+                    // An obstacle spanning several cells is only reported from the first cell it shares with the query
+                    if (cx == maxOf(x0, cellX(minX[i])) && cy == maxOf(y0, cellY(minY[i]))) out.get(obstacles.items[i])
+                }
+            }
         }
     }
 
-    override fun clear() {
-        lock.withLock {
-            super.clear()
+    fun intersect(rect: Rect, out: Cons<TurretPathfindingEntity>) = intersect(rect.x, rect.y, rect.width, rect.height, out)
+
+    /** Whether any obstacle's hitbox overlaps the rectangle. */
+    fun any(x: Float, y: Float, width: Float, height: Float): Boolean {
+        for (cx in cellX(x)..cellX(x + width)) {
+            for (cy in cellY(y)..cellY(y + height)) {
+                val cell = cx + cy * cellsX
+                for (j in starts[cell] until starts[cell + 1]) {
+                    val i = items[j]
+                    if (minX[i] <= x + width && maxX[i] >= x && minY[i] <= y + height && maxY[i] >= y) return true
+                }
+            }
         }
+        return false
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package mindustry.client.ui;
+
+import arc.graphics.g2d.*;
+import arc.scene.*;
+import arc.scene.ui.layout.*;
+import mindustry.client.antigrief.PowerInfo.*;
+import mindustry.gen.*;
+import mindustry.graphics.*;
+
+/** Line chart of a {@link PowerHistory}, the balance is drawn around a zero line and stored power is drawn faded behind it. */
+public class PowerHistoryChart extends Element {
+    private final PowerHistory history;
+
+    public PowerHistoryChart(PowerHistory history){
+        this.history = history;
+    }
+
+    @Override
+    public void draw(){
+        Draw.colorl(0.1f, parentAlpha);
+        Tex.bar.draw(x, y, width, height);
+
+        int size = history.size();
+        if(size < 2) return;
+
+        float maxBalance = 1f, maxStored = 1f;
+        for(int i = 0; i < size; i++){
+            int index = history.index(i);
+            maxBalance = Math.max(maxBalance, Math.abs(history.balance[index]));
+            maxStored = Math.max(maxStored, history.stored[index]);
+        }
+
+        float step = width / (history.balance.length - 1), offset = width - step * (size - 1), middle = y + height / 2f;
+        Lines.stroke(Scl.scl(1f));
+
+        Draw.color(Pal.gray, parentAlpha);
+        Lines.line(x, middle, x + width, middle);
+
+        Draw.color(Pal.powerBar, parentAlpha * 0.5f);
+        for(int i = 1; i < size; i++){
+            Lines.line(x + offset + step * (i - 1), y + history.stored[history.index(i - 1)] / maxStored * height,
+                x + offset + step * i, y + history.stored[history.index(i)] / maxStored * height);
+        }
+
+        Draw.color(Pal.powerBar, parentAlpha);
+        for(int i = 1; i < size; i++){
+            float last = history.balance[history.index(i - 1)], current = history.balance[history.index(i)];
+            Lines.line(x + offset + step * (i - 1), middle + last / maxBalance * height / 2f,
+                x + offset + step * i, middle + current / maxBalance * height / 2f);
+        }
+
+        Draw.reset();
+    }
+}
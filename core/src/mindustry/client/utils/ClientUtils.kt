@@ -101,18 +101,63 @@ fun Float.ceil() = ceil(this).toInt()
 fun ByteArray.buffer(): ByteBuffer = ByteBuffer.wrap(this)
 
 object Compression {
-    fun compress(input: ByteArray): ByteArray {
-        val deflater = DeflaterInputStream(input.inputStream())
-        val output = deflater.readBytes()
-        deflater.close()
-        return output
+    /** Deflates [input], a [dictionary] shared with the receiver helps with small inputs that look alike. */
+    fun compress(input: ByteArray, dictionary: ByteArray? = null): ByteArray {
+        val deflater = Deflater()
+        try {
+            if (dictionary != null) deflater.setDictionary(dictionary)
+            deflater.setInput(input)
+            deflater.finish()
+            var output = ByteArray(max(64, input.size / 2))
+            var size = 0
+            while (!deflater.finished()) {
+                if (size == output.size) output = output.copyOf(output.size * 2)
+                size += deflater.deflate(output, size, output.size - size)
+            }
+            return output.copyOf(size)
+        } finally {
+            deflater.end()
+        }
     }
 
-    fun inflate(input: ByteArray): ByteArray {
-        val inflater = InflaterInputStream(input.inputStream())
-        val output = inflater.readBytes()
-        inflater.close()
-        return output
+    fun inflate(input: ByteArray) = Inflation(input.size * 2).add(input, 0, input.size).finish()
+
+    /** Inflates data that arrives in pieces straight into one growing array, without joining the pieces first. */
+    class Inflation(expected: Int = 64, private val dictionary: ByteArray? = null) {
+        private val inflater = Inflater()
+        private var output = ByteArray(max(64, expected))
+        private var size = 0
+
+        /** Inflates [length] bytes of [input] starting at [offset], the bytes are not copied. */
+        fun add(input: ByteArray, offset: Int, length: Int): Inflation {
+            inflater.setInput(input, offset, length)
+            try {
+                while (!inflater.finished()) {
+                    if (size == output.size) output = output.copyOf(output.size * 2)
+                    val read = inflater.inflate(output, size, output.size - size)
+                    size += read
+                    if (read != 0) continue
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) throw ZipException("Compressed data needs a dictionary")
+                        inflater.setDictionary(dictionary)
+                        continue
+                    }
+                    if (inflater.needsInput()) break // Output has room so nothing is held back, wait for the next piece
+                }
+            } catch (e: Exception) {
+                inflater.end()
+                throw e
+            }
+            return this
+        }
+
+        /** Returns everything inflated, throws if the compressed data didn't end. */
+        fun finish(): ByteArray {
+            val finished = inflater.finished()
+            inflater.end()
+            if (!finished) throw EOFException("Unexpected end of compressed data")
+            return if (size == output.size) output else output.copyOf(size)
+        }
     }
 }
 
@@ -17,11 +17,11 @@ abstract class PowerGraphUpdaterComp implements Entityc{
 
     @Override
     public void add() {
-        PowerInfo.graphs.add(graph);
+        PowerInfo.added(graph);
     }
 
     @Override
     public void remove(){
-        PowerInfo.graphs.remove(graph);
+        PowerInfo.removed(graph);
     }
 }
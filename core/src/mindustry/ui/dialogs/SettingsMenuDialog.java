@@ -20,6 +20,7 @@ import arc.util.io.*;
 import mindustry.*;
 import mindustry.client.*;
 import mindustry.client.antigrief.*;
+import mindustry.client.navigation.*;
 import mindustry.content.*;
 import mindustry.content.TechTree.*;
 import mindustry.core.*;
@@ -361,6 +362,7 @@ public class SettingsMenuDialog extends BaseDialog{
         client.checkPref("drawallitems", true, i -> UnitType.drawAllItems = i);
         client.checkPref("drawpath", true);
         client.checkPref("graphdisplay", false);
+        client.checkPref("powerhistory", false);
         client.checkPref("unitranges", false);
         client.checkPref("mobileui", false, i -> mobile = !mobile);
         client.checkPref("showreactors", false);
@@ -375,6 +377,8 @@ public class SettingsMenuDialog extends BaseDialog{
         client.checkPref("autoupdate", true, i -> becontrol.checkUpdates = i);
         client.checkPref("discordrpc", true, i -> platform.toggleDiscord(i));
         client.checkPref("pathnav", true);
+        client.checkPref("jumppointnav", false, i -> Navigation.selectNavigator());
+        client.checkPref("incrementalnav", false, i -> Navigation.selectNavigator());
         client.checkPref("nyduspadpatch", true);
         client.checkPref("hidebannedblocks", false);
         client.checkPref("allowjoinany", false);
@@ -572,6 +576,8 @@ public class SettingsMenuDialog extends BaseDialog{
         // Start Moderation Settings
         moderation.checkPref("modenabled", true, b -> Client.INSTANCE.setLeaves(b ? new Moderation() : null));
         moderation.sliderPref("leavecount", 100, 5, 1000, 10, String::valueOf);
+        moderation.checkPref("persistentlogs", false);
+        moderation.checkPref("griefwarnings", true);
         // End Moderation Settings
     }
 
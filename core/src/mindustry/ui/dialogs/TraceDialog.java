@@ -2,6 +2,7 @@ package mindustry.ui.dialogs;
 
 import arc.*;
 import arc.scene.ui.layout.*;
+import arc.util.*;
 import mindustry.gen.*;
 import mindustry.net.*;
 import mindustry.net.Administration.*;
@@ -20,6 +21,11 @@ public class TraceDialog extends BaseDialog{
     }
 
     public void show(Player player, TraceInfo info, boolean offline){
+        show(player.name, info, offline ? null : player);
+    }
+
+    /** Shows the trace of a player that may have left, the ban button is only added if the player is given. */
+    public void show(String name, TraceInfo info, @Nullable Player player){
         cont.clear();
         buttons.clear();
         addCloseButton();
@@ -28,7 +34,7 @@ public class TraceDialog extends BaseDialog{
             Call.sendChatMessage("/js Vars.netServer.admins.banPlayerID(" + info.uuid + ")");
             Call.sendChatMessage("/js Vars.netServer.admins.banPlayerIP(" + info.ip + ")");
         }).width(420);
-        if(!offline){
+        if(player != null){
             buttons.button("Ban (Won't work if they leave before pressed)", () -> Call.adminRequest(player, Packets.AdminAction.ban)).width(420);
         }
 
@@ -37,7 +43,7 @@ public class TraceDialog extends BaseDialog{
         table.defaults().pad(1);
 
         table.defaults().left().expandX();
-        table.button(Core.bundle.format("trace.playername", player.name), Styles.nonetdef, () -> Core.app.setClipboardText(player.name)).wrapLabel(false);
+        table.button(Core.bundle.format("trace.playername", name), Styles.nonetdef, () -> Core.app.setClipboardText(name)).wrapLabel(false);
         table.row();
         table.button(Core.bundle.format("trace.ip", info.ip), Styles.nonetdef, () -> Core.app.setClipboardText(info.ip)).wrapLabel(false);
         table.row();
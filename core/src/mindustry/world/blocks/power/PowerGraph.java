@@ -3,6 +3,7 @@ package mindustry.world.blocks.power;
 import arc.math.*;
 import arc.struct.*;
 import arc.util.*;
+import mindustry.client.antigrief.*;
 import mindustry.game.*;
 import mindustry.gen.*;
 import mindustry.world.consumers.*;
@@ -279,6 +280,8 @@ public class PowerGraph{
             build.power.graph = this;
             build.power.init = true;
             all.add(build);
+            //lets the hud keep track of the biggest graph without searching every frame
+            if(entity != null && entity.isAdded()) PowerInfo.grown(this);
 
             if(build.block.outputsPower && build.block.consumesPower && !build.block.consPower.buffered){
                 producers.add(build);
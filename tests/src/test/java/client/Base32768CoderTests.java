@@ -4,6 +4,7 @@ import mindustry.client.communication.Base32768Coder;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Random;
@@ -30,4 +31,77 @@ public class Base32768CoderTests {
         Assertions.assertEquals(Base32768Coder.INSTANCE.encode(input), output);
         Assertions.assertArrayEquals(Base32768Coder.INSTANCE.decode(output), input);
     }
+
+    @Test
+    void testStreaming() throws IOException {
+        Random random = new Random(1);
+        for (int size : new int[] {0, 1, 2, 15, 16, 1_000, 70_000}) { // 70k needs a surrogate pair for the length
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+
+            StringBuilder encoded = Base32768Coder.INSTANCE.encode(ByteBuffer.wrap(bytes), new StringBuilder("prefix"));
+            Assertions.assertEquals("prefix" + Base32768Coder.INSTANCE.encode(bytes), encoded.toString());
+
+            ByteBuffer out = ByteBuffer.allocate(size + 2);
+            out.put((byte)7);
+            Base32768Coder.INSTANCE.decode(encoded, 6, encoded.length(), out);
+            Assertions.assertEquals(size + 1, out.position());
+            Assertions.assertEquals(7, out.get(0));
+            Assertions.assertArrayEquals(bytes, java.util.Arrays.copyOfRange(out.array(), 1, size + 1));
+
+            int length = Base32768Coder.INSTANCE.decodedLength(encoded, encoded.length());
+            int digits = encoded.length() - Character.charCount(length + 128);
+            byte[] pieces = new byte[length];
+            Base32768Coder.Decoder decoder = new Base32768Coder.Decoder(ByteBuffer.wrap(pieces), length);
+            for (int i = 6; i < digits; i += 34) decoder.add(encoded, i, Math.min(i + 34, digits));
+            decoder.finish();
+            Assertions.assertArrayEquals(bytes, pieces);
+        }
+        Assertions.assertThrows(IOException.class, () -> Base32768Coder.INSTANCE.decode("\u0100\u0090"));
+    }
+
+    @Test
+    void benchmarkThroughput() throws IOException {
+        byte[] bytes = new byte[1 << 20];
+        new Random(2).nextBytes(bytes);
+        String encoded = Base32768Coder.INSTANCE.encode(bytes);
+        StringBuilder builder = new StringBuilder(encoded.length());
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        int iterations = 20;
+
+        for (int warmup = 0; warmup < 2; warmup++) { // Results of the second round are printed
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) Base32768Coder.INSTANCE.encode(bytes);
+            long encode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) Base32768Coder.INSTANCE.decode(encoded);
+            long decode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                builder.setLength(0);
+                Base32768Coder.INSTANCE.encode(ByteBuffer.wrap(bytes), builder);
+            }
+            long encodeStreaming = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                buffer.clear();
+                Base32768Coder.INSTANCE.decode(encoded, 0, encoded.length(), buffer);
+            }
+            long decodeStreaming = System.nanoTime() - start;
+
+            if (warmup == 1) {
+                System.out.printf("Base32768: encode %.1f MB/s, decode %.1f MB/s, streaming encode %.1f MB/s, streaming decode %.1f MB/s%n",
+                    mbps(iterations, bytes.length, encode), mbps(iterations, bytes.length, decode),
+                    mbps(iterations, bytes.length, encodeStreaming), mbps(iterations, bytes.length, decodeStreaming));
+            }
+        }
+        Assertions.assertArrayEquals(bytes, buffer.array());
+    }
+
+    private static double mbps(int iterations, int bytes, long nanos) {
+        return (double)iterations * bytes / (1 << 20) / (nanos / 1e9);
+    }
 }
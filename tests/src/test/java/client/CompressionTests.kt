@@ -1,5 +1,6 @@
 package client
 
+import mindustry.client.utils.Compression
 import mindustry.client.utils.compress
 import mindustry.client.utils.inflate
 import org.junit.jupiter.api.Assertions
@@ -13,4 +14,18 @@ class CompressionTests {
         val input = Random.Default.nextBytes(1024)
         Assertions.assertArrayEquals(input, input.compress().inflate())
     }
+
+    @Test
+    fun testStreamingInflate() {
+        val input = ByteArray(100_000) { (it % 7).toByte() } // Inflates to many times the compressed size
+        val compressed = input.compress()
+        val inflation = Compression.Inflation()
+        var offset = 0
+        while (offset < compressed.size) {
+            val length = minOf(13, compressed.size - offset)
+            inflation.add(compressed, offset, length)
+            offset += length
+        }
+        Assertions.assertArrayEquals(input, inflation.finish())
+    }
 }
@@ -0,0 +1,62 @@
+package client
+
+import mindustry.client.antigrief.*
+import org.junit.jupiter.api.*
+import kotlin.random.*
+
+class GriefDetectorTests {
+
+    /** A recorded stream of events, one entry per event. */
+    private class Stream(val causes: IntArray, val patterns: IntArray, val times: LongArray) {
+        val size get() = causes.size
+
+        fun replay(detector: GriefDetector) {
+            for (i in 0 until size) detector.event(causes[i], patterns[i], 0, 0, times[i])
+        }
+    }
+
+    /** [players] interactors doing ordinary work at [rate] events per second, a few of those are reactor configs and unlinks. */
+    private fun benign(size: Int, players: Int, rate: Int, random: Random): Stream {
+        val causes = IntArray(size) { 2 + random.nextInt(players) }
+        val patterns = IntArray(size) { val roll = random.nextInt(1000); if (roll < 2) GriefDetector.REACTOR else if (roll < 20) GriefDetector.UNLINK else GriefDetector.DECONSTRUCT }
+        val times = LongArray(size) { 1_000_000L + it * 1000L / rate }
+        return Stream(causes, patterns, times)
+    }
+
+    @Test
+    fun testBurst() {
+        val warnings = mutableListOf<Pair<Int, Int>>()
+        val detector = GriefDetector { cause, pattern, _, _, _ -> warnings.add(cause to pattern) }
+        val stream = benign(20_000, 50, 20, Random(1))
+        stream.replay(detector)
+        Assertions.assertTrue(warnings.isEmpty(), "Ordinary play raised $warnings")
+
+        val time = stream.times.last()
+        repeat(100) { detector.event(1000, GriefDetector.DECONSTRUCT, 0, 0, time + it * 50L) } // 100 blocks in 5 seconds
+        Assertions.assertEquals(listOf(1000 to GriefDetector.DECONSTRUCT), warnings) // Warned once thanks to the cooldown
+        Assertions.assertEquals(1000, detector.hitters(GriefDetector.DECONSTRUCT, time + 5000).first())
+    }
+
+    @Test
+    fun testWindow() {
+        val warnings = mutableListOf<Int>()
+        val detector = GriefDetector { cause, _, _, _, _ -> warnings.add(cause) }
+        // One reactor config every 5 seconds never has three inside a single window
+        repeat(100) { detector.event(5, GriefDetector.REACTOR, 0, 0, 1_000_000L + it * 5000L) }
+        Assertions.assertTrue(warnings.isEmpty())
+        Assertions.assertTrue(detector.hitters(GriefDetector.REACTOR, 1_000_000L + 100 * 5000L + GriefDetector.WINDOW).isEmpty())
+    }
+
+    @Test
+    fun benchmarkReplay() {
+        val stream = benign(2_000_000, 5_000, 200, Random(2))
+        val detector = GriefDetector { _, _, _, _, _ -> }
+        stream.replay(detector) // Warmup
+        detector.clear()
+
+        val start = System.nanoTime()
+        stream.replay(detector)
+        val elapsed = System.nanoTime() - start
+        println("Replayed ${stream.size} events in ${elapsed / 1_000_000}ms (${elapsed / stream.size}ns per event)")
+    }
+}
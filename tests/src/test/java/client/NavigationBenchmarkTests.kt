@@ -0,0 +1,131 @@
+package client
+
+import ApplicationTests
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.*
+import arc.util.pooling.*
+import mindustry.Vars.*
+import mindustry.client.navigation.*
+import mindustry.entities.*
+import org.junit.jupiter.api.*
+import kotlin.random.*
+
+/** Compares the client navigators on stock maps, drop zones are the only danger. */
+class NavigationBenchmarkTests {
+    companion object {
+        @JvmStatic
+        @BeforeAll
+        fun launch() = ApplicationTests.launchApplication(false)
+    }
+
+    @Test
+    fun benchmarkNavigators() {
+        for (name in listOf("groundZero", "frozenForest", "craters", "fungalPass", "nuclearComplex")) {
+            world.loadMap(maps.loadInternalMap(name))
+            val blocked = Navigator.Int2P { x, y -> EntityCollisions.solid(x, y) }
+            val terrain = EntityCollisions.SolidPred { x, y -> EntityCollisions.solid(x, y) }
+            val danger = DangerField(world.width(), world.height())
+            danger.begin()
+            for (spawn in spawner.spawns) danger.set(spawn, spawn.worldx(), spawn.worldy(), state.rules.dropZoneRadius)
+            danger.end()
+
+            val random = Random(name.hashCode())
+            val trips = mutableListOf<Pair<Vec2, Vec2>>()
+            while (trips.size < 50) {
+                val start = world.tiles.getc(random.nextInt(world.width()), random.nextInt(world.height()))
+                val end = world.tiles.getc(random.nextInt(world.width()), random.nextInt(world.height()))
+                if (!start.solid() && !end.solid()) trips.add(Vec2(start.worldx(), start.worldy()) to Vec2(end.worldx(), end.worldy()))
+            }
+
+            val found = IntArray(3)
+            for ((i, navigator) in listOf(AStarNavigator, JumpPointNavigator, DStarLiteNavigator).withIndex()) {
+                var expanded = 0L
+                val start = Time.nanos()
+                for ((from, to) in trips) {
+                    val path = navigator.findPath(from.cpy(), to.cpy(), danger, world.unitWidth().toFloat(), world.unitHeight().toFloat(), blocked, terrain)
+                    if (path.isNotEmpty()) found[i]++
+                    expanded += expansions(navigator)
+                    Pools.freeAll(Seq.with(*path))
+                }
+                val elapsed = Time.timeSinceNanos(start)
+                println("$name ${navigator.javaClass.simpleName}: ${elapsed / trips.size / 1000}us and $expanded expansions per ${trips.size} trips, ${found[i]} found")
+            }
+            Assertions.assertEquals(found[0], found[1], "Both navigators should reach the same trips on $name")
+            Assertions.assertEquals(found[0], found[2], "Both navigators should reach the same trips on $name")
+        }
+    }
+
+    /** Follows paths and plans again every few steps like pathnav does, D* Lite should only repair its last search. */
+    @Test
+    fun benchmarkReplanning() {
+        for (name in listOf("frozenForest", "nuclearComplex")) {
+            world.loadMap(maps.loadInternalMap(name))
+            val blocked = Navigator.Int2P { x, y -> EntityCollisions.solid(x, y) }
+            val terrain = EntityCollisions.SolidPred { x, y -> EntityCollisions.solid(x, y) }
+            val danger = DangerField(world.width(), world.height())
+            val random = Random(name.hashCode())
+
+            val expanded = LongArray(2)
+            repeat(10) {
+                val start = world.tiles.getc(random.nextInt(world.width()), random.nextInt(world.height()))
+                val end = world.tiles.getc(random.nextInt(world.width()), random.nextInt(world.height()))
+                if (start.solid() || end.solid()) return@repeat
+                for ((i, navigator) in listOf(AStarNavigator, DStarLiteNavigator).withIndex()) {
+                    val position = Vec2(start.worldx(), start.worldy())
+                    for (step in 0 until 20) {
+                        val path = navigator.findPath(position.cpy(), Vec2(end.worldx(), end.worldy()), danger, world.unitWidth().toFloat(), world.unitHeight().toFloat(), blocked, terrain)
+                        expanded[i] += expansions(navigator).toLong()
+                        if (path.size > 5) position.set(path[5]) // Move a few tiles along before planning again
+                        Pools.freeAll(Seq.with(*path))
+                    }
+                }
+            }
+            println("$name replanning: ${expanded[0]} A* expansions, ${expanded[1]} D* Lite expansions")
+            Assertions.assertTrue(expanded[1] < expanded[0], "Replanning along a path should be cheaper with D* Lite on $name")
+        }
+    }
+
+    /** Chases a target that wanders around like assisting or following a player does, so both ends move between searches. */
+    @Test
+    fun benchmarkMovingGoal() {
+        for (name in listOf("frozenForest", "nuclearComplex")) {
+            world.loadMap(maps.loadInternalMap(name))
+            val blocked = Navigator.Int2P { x, y -> EntityCollisions.solid(x, y) }
+            val terrain = EntityCollisions.SolidPred { x, y -> EntityCollisions.solid(x, y) }
+            val danger = DangerField(world.width(), world.height())
+            val random = Random(name.hashCode())
+
+            val expanded = LongArray(2)
+            repeat(10) {
+                val start = world.tiles.getc(random.nextInt(world.width()), random.nextInt(world.height()))
+                val end = world.tiles.getc(random.nextInt(world.width()), random.nextInt(world.height()))
+                if (start.solid() || end.solid()) return@repeat
+                // The target's walk is fixed up front so that both navigators chase the same one
+                val targets = mutableListOf(end)
+                while (targets.size < 20) {
+                    val last = targets.last()
+                    val next = world.tiles.get(last.x + random.nextInt(-2, 3), last.y + random.nextInt(-2, 3))
+                    targets.add(if (next == null || next.solid()) last else next)
+                }
+                for ((i, navigator) in listOf(AStarNavigator, DStarLiteNavigator).withIndex()) {
+                    val position = Vec2(start.worldx(), start.worldy())
+                    for (target in targets) {
+                        val path = navigator.findPath(position.cpy(), Vec2(target.worldx(), target.worldy()), danger, world.unitWidth().toFloat(), world.unitHeight().toFloat(), blocked, terrain)
+                        expanded[i] += expansions(navigator).toLong()
+                        if (path.size > 3) position.set(path[3]) // The target moves about as fast as we do
+                        Pools.freeAll(Seq.with(*path))
+                    }
+                }
+            }
+            println("$name moving goal: ${expanded[0]} A* expansions, ${expanded[1]} D* Lite expansions")
+            Assertions.assertTrue(expanded[1] < expanded[0], "Chasing a moving goal should be cheaper with D* Lite on $name")
+        }
+    }
+
+    private fun expansions(navigator: Navigator) = when (navigator) {
+        AStarNavigator -> AStarNavigator.expanded
+        JumpPointNavigator -> JumpPointNavigator.expanded
+        else -> DStarLiteNavigator.expanded
+    }
+}
@@ -0,0 +1,38 @@
+package client
+
+import arc.math.geom.*
+import mindustry.client.navigation.*
+import mindustry.client.navigation.waypoints.*
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import java.util.concurrent.*
+
+/** Runs searches for several goals through [NavigationScheduler] at once with stand-in tasks instead of navigators. */
+class NavigationSchedulerTests {
+    @Test
+    fun testConcurrentGoals() {
+        NavigationScheduler.stats.reset()
+        val release = CountDownLatch(1)
+        val fired = CountDownLatch(3)
+        val first = Any()
+        val second = Any()
+        val a = Point2.pack(10, 10)
+        val b = Point2.pack(20, 20)
+
+        val requestA = NavigationScheduler.submit(a, NavigationScheduler.BACKGROUND, first) { release.await(); emptyArray<PositionWaypoint>() }
+        val requestB = NavigationScheduler.submit(b, NavigationScheduler.FOLLOWED, first) { emptyArray<PositionWaypoint>() }
+        assertNotSame(requestA, requestB)
+        requestA.thenAccept { fired.countDown() }
+        requestB.thenAccept { fired.countDown() }
+
+        // Another caller joins the search for a, asking again from the same caller doesn't count twice
+        val merged = NavigationScheduler.submit(a, NavigationScheduler.FOLLOWED, second) { fail("a is already being searched for") }
+        NavigationScheduler.submit(a, NavigationScheduler.FOLLOWED, second) { fail("a is already being searched for") }
+        assertSame(requestA, merged)
+        merged.thenAccept { fired.countDown() }
+        assertEquals(1, NavigationScheduler.stats.coalesced.get())
+
+        release.countDown()
+        assertTrue(fired.await(10, TimeUnit.SECONDS), "Every callback should fire")
+    }
+}
@@ -2,7 +2,9 @@ package client
 
 import mindustry.client.communication.*
 import mindustry.client.communication.DummyCommunicationSystem
+import mindustry.client.crypto.*
 import org.junit.jupiter.api.*
+import java.math.*
 import kotlin.random.Random
 
 class PacketTests {
@@ -48,4 +50,50 @@ class PacketTests {
         Assertions.assertArrayEquals(transmission2.content, output2)
         Assertions.assertArrayEquals(transmission3.content, output3)
     }
+
+    @Test
+    fun testLargeTransmission() {
+        val pool = mutableListOf<DummyCommunicationSystem>()
+        val client1 = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+        val client2 = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+
+        val transmission = DummyTransmission(Random.nextBytes(16_000)) // Hundreds of packets, close to the limit
+        var output: ByteArray? = null
+        client2.addListener { t, _ -> if (t is DummyTransmission && t.id == transmission.id) output = t.content }
+
+        client1.send(transmission)
+        for (i in 0..1000) client1.update()
+
+        Assertions.assertArrayEquals(transmission.content, output)
+    }
+
+    @Test
+    fun testLanes() {
+        val pool = mutableListOf<DummyCommunicationSystem>()
+        val client1 = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+        val client2 = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+
+        val bulk = DummyTransmission(Random.nextBytes(16_000))
+        val urgent = SignatureTransmission(Random.nextBytes(Signatures.SIGNATURE_LENGTH), BigInteger.TEN, 0L, 0, 0)
+        var bulkAt = -1
+        var urgentAt = -1
+        var updates = 0
+        client2.addListener { t, _ ->
+            when (t.id) {
+                bulk.id -> bulkAt = updates
+                urgent.id -> urgentAt = updates
+            }
+        }
+
+        client1.send(bulk)
+        client1.update() // The bulk transmission is already sending when the urgent one is queued
+        client1.send(urgent)
+        while (bulkAt == -1 && updates < 2000) {
+            client1.update()
+            updates++
+        }
+
+        Assertions.assertNotEquals(-1, bulkAt, "The bulk transmission should arrive")
+        Assertions.assertTrue(urgentAt in 0 until 20, "The urgent transmission shouldn't wait for the bulk one, it took $urgentAt updates")
+    }
 }
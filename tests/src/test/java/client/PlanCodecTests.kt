@@ -0,0 +1,87 @@
+package client
+
+import ApplicationTests
+import arc.util.io.*
+import mindustry.Vars.*
+import mindustry.client.communication.*
+import mindustry.client.utils.*
+import mindustry.content.*
+import mindustry.entities.units.*
+import mindustry.io.*
+import org.junit.jupiter.api.*
+import java.io.*
+
+class PlanCodecTests {
+    companion object {
+        @JvmStatic
+        @BeforeAll
+        fun launch() {
+            ApplicationTests.launchApplication(false)
+            world.loadMap(maps.loadInternalMap("groundZero"))
+        }
+    }
+
+    /** Plans that use every flag: repeated and changing blocks, rotations and configs, breaking and moving backwards. */
+    private fun plans() = arrayOf(
+        BuildPlan(40, 40, 0, Blocks.conveyor),
+        BuildPlan(41, 40, 0, Blocks.conveyor),
+        BuildPlan(42, 40, 1, Blocks.conveyor),
+        BuildPlan(30, 35, 0, Blocks.sorter, Items.copper), // Negative deltas, new config
+        BuildPlan(30, 34, 0, Blocks.sorter, Items.copper), // Same config
+        BuildPlan(30, 33, 0, Blocks.sorter, Items.lead), // Another new config
+        BuildPlan(29, 33, 0, Blocks.sorter, null), // No config
+        BuildPlan(29, 32, 0, Blocks.sorter, Items.copper), // Config from the table
+        BuildPlan(50, 20), // Breaking
+        BuildPlan(10, 45), // Breaking, negative deltas
+        BuildPlan(10, 46, 2, Blocks.router)
+    )
+
+    private fun assertPlansEqual(expected: Array<BuildPlan>, actual: Array<BuildPlan>) {
+        Assertions.assertEquals(expected.size, actual.size)
+        for (i in expected.indices) {
+            val a = expected[i]
+            val b = actual[i]
+            Assertions.assertEquals(a.x, b.x, "x of plan $i")
+            Assertions.assertEquals(a.y, b.y, "y of plan $i")
+            Assertions.assertEquals(a.breaking, b.breaking, "breaking of plan $i")
+            if (a.breaking) continue
+            Assertions.assertEquals(a.block, b.block, "block of plan $i")
+            Assertions.assertEquals(a.rotation, b.rotation, "rotation of plan $i")
+            Assertions.assertEquals(a.config, b.config, "config of plan $i")
+        }
+    }
+
+    private fun encode(plans: Array<BuildPlan>) = ByteArrayOutputStream().also { PlanCodec.write(DataOutputStream(it), plans) }.toByteArray()
+
+    @Test
+    fun testRoundTrip() {
+        val plans = plans()
+        val bytes = encode(plans)
+        Assertions.assertTrue(PlanCodec.isEncoded(bytes))
+        assertPlansEqual(plans, PlanCodec.readAny(bytes))
+    }
+
+    @Test
+    fun testLegacy() {
+        val plans = plans()
+        val stream = ByteArrayOutputStream()
+        TypeIO.writePlans(Writes(DataOutputStream(stream)), plans)
+        val bytes = stream.toByteArray()
+        Assertions.assertFalse(PlanCodec.isEncoded(bytes))
+        assertPlansEqual(plans, PlanCodec.readAny(bytes))
+    }
+
+    @Test
+    fun testDictionary() {
+        val bytes = encode(plans())
+        val compressed = Compression.compress(bytes, PlanCodec.dictionary)
+        Assertions.assertArrayEquals(bytes, Compression.Inflation(bytes.size, PlanCodec.dictionary).add(compressed, 0, compressed.size).finish())
+    }
+
+    @Test
+    fun testInvalid() {
+        val bytes = encode(plans())
+        val huge = byteArrayOf(bytes[0], bytes[1], 0xff.toByte(), 0xff.toByte(), 0xff.toByte(), 0xff.toByte(), 0x07) // Count near Int.MAX_VALUE
+        Assertions.assertThrows(IOException::class.java) { PlanCodec.readAny(huge) }
+    }
+}
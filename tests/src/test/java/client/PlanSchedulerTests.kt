@@ -0,0 +1,105 @@
+package client
+
+import arc.func.*
+import arc.math.*
+import arc.struct.*
+import arc.util.*
+import mindustry.Vars.*
+import mindustry.client.navigation.*
+import mindustry.entities.units.*
+import org.junit.jupiter.api.*
+import kotlin.random.*
+
+/** Replays plan sets through a simple builder and compares how long building everything takes. */
+class PlanSchedulerTests {
+    companion object {
+        const val SPEED = 0.5f // Tiles per tick
+        const val RANGE = 25f // Tiles
+        const val BUILD = 3 // Ticks per plan
+        const val BATCH = 300
+        const val FRAME = 16_000_000L // Nanoseconds, the budget is 2ms but slow machines get some slack
+    }
+
+    /** Rectangles of plans scattered over the map like pasted schematics. */
+    private fun schematics(plans: Int, random: Random): Seq<BuildPlan> {
+        val out = Seq<BuildPlan>()
+        while (out.size < plans) {
+            val width = 5 + random.nextInt(40)
+            val height = 5 + random.nextInt(40)
+            val x = random.nextInt(500 - width)
+            val y = random.nextInt(500 - height)
+            for (dx in 0 until width) for (dy in 0 until height) if (out.size < plans && random.nextInt(4) != 0) out.add(BuildPlan(x + dx, y + dy))
+        }
+        return out
+    }
+
+    /** Ticks needed to build every plan when [next] picks up to [BATCH] plans to build whenever the builder runs out. */
+    private fun simulate(plans: Seq<BuildPlan>, next: (remaining: Seq<BuildPlan>, x: Float, y: Float, out: Seq<BuildPlan>) -> Unit): Long {
+        val built = ObjectSet<BuildPlan>()
+        val remaining = Seq<BuildPlan>()
+        val batch = Seq<BuildPlan>()
+        var x = 250f
+        var y = 250f
+        var ticks = 0L
+        while (built.size < plans.size) {
+            remaining.clear()
+            for (plan in plans) if (!built.contains(plan)) remaining.add(plan)
+            batch.clear()
+            next(remaining, x, y, batch)
+            Assertions.assertTrue(batch.any(), "The scheduler has to return plans while there are any")
+            for (plan in batch) {
+                val distance = Mathf.dst(x, y, plan.x.toFloat(), plan.y.toFloat())
+                if (distance > RANGE) { // Walk up to the plan until it is in range
+                    val travel = distance - RANGE
+                    ticks += Mathf.ceil(travel / SPEED)
+                    x += (plan.x - x) * travel / distance
+                    y += (plan.y - y) * travel / distance
+                }
+                ticks += BUILD
+                built.add(plan)
+            }
+        }
+        return ticks
+    }
+
+    @Test
+    fun benchmarkBuildTime() {
+        for (size in listOf(1_000, 10_000)) {
+            val plans = schematics(size, Random(size))
+
+            val greedy = simulate(plans) { remaining, x, y, out -> // What BuildPath used to do
+                remaining.sort(Floatf { plan -> Mathf.dst2(x, y, plan.x.toFloat(), plan.y.toFloat()) })
+                for (i in 0 until minOf(BATCH, remaining.size)) out.add(remaining[i])
+            }
+
+            // The scheduler as it ships, with its time budget
+            val scheduler = PlanScheduler()
+            var calls = 0
+            var slowest = 0L
+            val scheduled = simulate(plans) { remaining, x, y, out ->
+                val start = Time.nanos()
+                scheduler.order(remaining, x * tilesize, y * tilesize, BATCH, out)
+                if (calls++ > 0) slowest = maxOf(slowest, Time.timeSinceNanos(start)) // The first call also pays for class loading and the jit
+            }
+
+            // Without a time limit, so that the route doesn't depend on how fast the machine is
+            val unlimited = simulate(plans) { remaining, x, y, out ->
+                PlanScheduler(budget = 10_000_000_000L).order(remaining, x * tilesize, y * tilesize, BATCH, out)
+            }
+
+            println("$size plans: greedy $greedy ticks, scheduled $scheduled ticks, unlimited $unlimited ticks, slowest order call ${slowest / 1000}us")
+            Assertions.assertTrue(slowest < FRAME, "Ordering $size plans took ${slowest / 1000}us, more than a frame")
+            Assertions.assertTrue(unlimited < greedy, "Scheduling should build $size plans faster than picking the nearest ones")
+            Assertions.assertTrue(scheduled < greedy * 1.1, "A scheduler that ran out of time should still be about as good as picking the nearest plans")
+        }
+    }
+
+    @Test
+    fun testLimit() {
+        val plans = schematics(2_000, Random(1))
+        val out = Seq<BuildPlan>()
+        PlanScheduler().order(plans, 0f, 0f, BATCH, out)
+        Assertions.assertEquals(BATCH, out.size)
+        Assertions.assertEquals(BATCH, ObjectSet<BuildPlan>().apply { addAll(out) }.size, "Every plan should only be scheduled once")
+    }
+}
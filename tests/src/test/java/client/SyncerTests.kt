@@ -5,6 +5,7 @@ import mindustry.client.communication.*
 import mindustry.client.communication.syncing.*
 import org.junit.jupiter.api.*
 import java.io.*
+import kotlin.random.*
 
 class SyncerTests {
 
@@ -56,4 +57,85 @@ class SyncerTests {
 
         println(aSync.list)
     }
+
+    /** Desyncs the middle of a long list in different ways and checks that only about that part is sent again. */
+    @Test
+    fun testRepair() {
+        for (desync in listOf<(MutableList<Int>) -> Unit>({ it.add(150, -1) }, { it.removeAt(150) }, { it[150] = -1 })) {
+            val pool = mutableListOf<DummyCommunicationSystem>()
+            val aComms = DummyCommunicationSystem(pool)
+            val a = Packets.CommunicationClient(aComms)
+            val b = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+            val aSync = Syncer({ i, d -> d.writeInt(i) }, DataInputStream::readInt, a, 7L, Syncer.Mode.BOTH)
+            val bSync = Syncer({ i, d -> d.writeInt(i) }, DataInputStream::readInt, b, 7L, Syncer.Mode.BOTH)
+            bSync.retry = 50
+
+            val replaced = mutableListOf<Int>()
+            b.addListener { t, _ ->
+                val syncT = (t as? Syncer.SyncerTransmission)?.deserialize<Int>({ i, d -> d.writeInt(i) }, DataInputStream::readInt)
+                if (syncT is Syncer.SyncerT.ReplaceT) replaced.add(syncT.newObjects.size)
+            }
+            val pump = {
+                repeat(300) {
+                    aSync.update()
+                    bSync.update()
+                    a.update()
+                    b.update()
+                }
+            }
+
+            for (chunk in 0 until 6) {
+                aSync.added((0 until 50).map { Pair(chunk * 50 + it, chunk * 50 + it) })
+                pump()
+            }
+            Assertions.assertEquals(aSync.list, bSync.list)
+            Assertions.assertFalse(bSync.isDesynced)
+
+            desync(Reflect.get(bSync, "internalList"))
+            pool.remove(aComms) // The request for the repair gets lost
+            aSync.added(listOf(Pair(1000, 0)))
+            pump()
+            Assertions.assertTrue(bSync.isDesynced)
+            Assertions.assertTrue(replaced.isEmpty())
+
+            pool.add(aComms)
+            Thread.sleep(100) // Past the retry delay
+            aSync.added(listOf(Pair(1001, 152))) // Held back as well, it is part of the repair
+            pump()
+
+            Assertions.assertEquals(aSync.list, bSync.list)
+            Assertions.assertFalse(bSync.isDesynced)
+            Assertions.assertTrue(replaced.isNotEmpty())
+            for (size in replaced) Assertions.assertTrue(size < aSync.list.size / 8, "Repairs should only resend the part around the change, not $size items")
+        }
+    }
+
+    @Test
+    fun testHashedList() {
+        val random = Random(1)
+        val list = HashedList<Int> { it * -0x61c8864680b583ebL }
+        val plain = mutableListOf<Int>()
+        val fresh = { items: List<Int> -> HashedList<Int> { it * -0x61c8864680b583ebL }.apply { addAll(items) } }
+
+        repeat(2000) {
+            if (plain.isEmpty() || random.nextInt(3) != 0) {
+                val index = random.nextInt(plain.size + 1)
+                val item = random.nextInt()
+                plain.add(index, item)
+                list.add(index, item)
+            } else {
+                val index = random.nextInt(plain.size)
+                Assertions.assertEquals(plain.removeAt(index), list.removeAt(index))
+            }
+        }
+
+        Assertions.assertEquals(plain, list)
+        Assertions.assertEquals(fresh(plain).hash, list.hash, "The hash shouldn't depend on the order of edits")
+        for (k in listOf(0, 1, plain.size / 3, plain.size)) {
+            Assertions.assertEquals(fresh(plain.subList(0, k)).hash, list.prefix(k))
+            Assertions.assertEquals(fresh(plain.subList(plain.size - k, plain.size)).hash, list.suffix(k))
+        }
+        list.add(0, list.removeAt(1)) // Swapping two items has to change the hash
+        Assertions.assertNotEquals(fresh(plain).hash, list.hash)
+    }
 }